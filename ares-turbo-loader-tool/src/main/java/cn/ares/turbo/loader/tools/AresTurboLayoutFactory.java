@@ -36,6 +36,38 @@ public class AresTurboLayoutFactory implements LayoutFactory {
     }
   }
 
+  public static class War extends Layouts.War implements CustomLoaderLayout {
+
+    @Override
+    public void writeLoadedClasses(LoaderClassesWriter writer) throws IOException {
+      writer.writeLoaderClasses(NESTED_LOADER_JAR);
+      writer.writeLoaderClasses(NESTED_LOADER_JAR_ARES);
+    }
+
+    @Override
+    public String getLauncherClassName() {
+      // 替换为自定义的WarLauncher, WEB-INF/lib及WEB-INF/lib-provided同样使用索引
+      // Replace with a custom WarLauncher, WEB-INF/lib and WEB-INF/lib-provided are indexed as well
+      return "cn.ares.turbo.loader.AresWarLauncher";
+    }
+  }
+
+  public static class Expanded extends Layouts.Expanded implements CustomLoaderLayout {
+
+    @Override
+    public void writeLoadedClasses(LoaderClassesWriter writer) throws IOException {
+      writer.writeLoaderClasses(NESTED_LOADER_JAR);
+      writer.writeLoaderClasses(NESTED_LOADER_JAR_ARES);
+    }
+
+    @Override
+    public String getLauncherClassName() {
+      // 替换为自定义的PropertiesLauncher
+      // Replace with a custom PropertiesLauncher
+      return "cn.ares.turbo.loader.AresPropertiesLauncher";
+    }
+  }
+
   public Layout getLayout(File file) {
     if (file == null) {
       throw new IllegalArgumentException("File must not be null");
@@ -46,11 +78,11 @@ public class AresTurboLayoutFactory implements LayoutFactory {
         // return custom jar
         return new Jar();
       } else if (lowerCaseFileName.endsWith(".war")) {
-        return new Layouts.War();
+        return new War();
       } else if (!file.isDirectory() && !lowerCaseFileName.endsWith(".zip")) {
         throw new IllegalStateException("Unable to deduce layout for '" + file + "'");
       } else {
-        return new Layouts.Expanded();
+        return new Expanded();
       }
     }
   }
@@ -0,0 +1,586 @@
+package cn.ares.turbo.loader.tools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.jar.JarFile;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntryPredicate;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.compress.utils.IOUtils;
+import org.apache.commons.compress.utils.SeekableInMemoryByteChannel;
+
+/**
+ * 对repackage生成的fat jar进行二次处理, 由于LayoutFactory写入loader类时依赖尚未写入, 所以需要在repackage之后执行
+ * Post-process the fat jar produced by repackage, it must run after repackage because the
+ * libraries are not written yet when the layout writes the loader classes
+ */
+public class AresTurboRepackager {
+
+  /**
+   * 与AresJarLauncher读取的位置保持一致
+   * Keep in sync with the location read by AresJarLauncher
+   */
+  static final String INDEX_LOCATION = "BOOT-INF/ares-turbo.idx";
+
+  static final String INDEX_HEADER = "ares-turbo-index:1";
+
+  /**
+   * 与FastMappedZip读取的位置保持一致
+   * Keep in sync with the location read by FastMappedZip
+   */
+  static final String STARTUP_LAYOUT_LOCATION = "BOOT-INF/ares-turbo-startup.idx";
+
+  static final String STARTUP_LAYOUT_HEADER = "ares-turbo-startup:1";
+
+  /**
+   * FastLoadProfile的首行
+   * The first line of FastLoadProfile
+   */
+  private static final String PROFILE_HEADER_PREFIX = "ares-turbo-profile:";
+
+  private static final String CLASSES_LOCATION = "BOOT-INF/classes/";
+  private static final String LIB_LOCATION = "BOOT-INF/lib/";
+  private static final String JAR_SUFFIX = ".jar";
+  private static final String META_INF = "META-INF/";
+  private static final String INDEX_LIST = "META-INF/INDEX.LIST";
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static final byte[] LOCAL_FILE_HEADER_SIGNATURE = {0x50, 0x4b, 0x03, 0x04};
+
+  private static final String CLASS_SUFFIX = ".class";
+  private static final String STORE_CLASSES_OPTION = "--store-classes";
+  private static final String STORE_LIBRARIES_OPTION = "--store-libraries";
+  private static final String FLATTEN_LIBRARIES_OPTION = "--flatten-libraries";
+  private static final String STARTUP_PROFILE_OPTION = "--startup-profile";
+
+  private final File source;
+
+  /**
+   * 将BOOT-INF/classes中的class以STORED方式写入
+   * Whether to store the classes of BOOT-INF/classes uncompressed
+   */
+  private boolean storeClasses;
+
+  /**
+   * 将BOOT-INF/lib中每个依赖jar的条目以STORED方式重写, 签名jar除外
+   * Whether to rewrite the entries of every unsigned nested jar uncompressed
+   */
+  private boolean storeLibraries;
+
+  /**
+   * 额外写入合并了所有依赖jar的扁平归档, 使用mmap读取方式时启动只需解析一次
+   * Whether to also write the flattened archive of all nested jars, which the mapped reader parses
+   * once instead of every nested jar
+   */
+  private boolean flattenLibraries;
+
+  /**
+   * 启动画像, 其中的条目在BOOT-INF/classes及每个依赖jar中按首次访问的顺序排在最前, 使启动时的读取连续
+   * The startup profile, its entries are placed first in BOOT-INF/classes and every nested jar in
+   * the order of their first access, so that the reads during startup are sequential
+   */
+  private File startupProfile;
+
+  /* The rank of every entry name of the startup profile */
+  private Map<String, Integer> startupRanks;
+  /* The number of leading startup entries of every reordered archive */
+  private Map<String, Integer> startupEntryCounts;
+
+  private int storedEntries;
+  private long storedBytes;
+  private long inflateNanos;
+  private long sourceSize;
+  private long destinationSize;
+  private FlattenedLibraries flattenedLibraries;
+
+  public AresTurboRepackager(File source) {
+    if (source == null || !source.isFile()) {
+      throw new IllegalArgumentException("Source must refer to an existing file: " + source);
+    }
+    this.source = source;
+  }
+
+  public void setStoreClasses(boolean storeClasses) {
+    this.storeClasses = storeClasses;
+  }
+
+  public void setStoreLibraries(boolean storeLibraries) {
+    this.storeLibraries = storeLibraries;
+  }
+
+  public void setFlattenLibraries(boolean flattenLibraries) {
+    this.flattenLibraries = flattenLibraries;
+  }
+
+  public void setStartupProfile(File startupProfile) {
+    this.startupProfile = startupProfile;
+  }
+
+  public void repackage() throws IOException {
+    File destination = new File(source.getParentFile(), source.getName() + ".turbo");
+    storedEntries = 0;
+    storedBytes = 0;
+    inflateNanos = 0;
+    sourceSize = source.length();
+    flattenedLibraries = null;
+    startupRanks = startupProfile != null ? readStartupRanks(startupProfile) : null;
+    startupEntryCounts = new TreeMap<>();
+    try (ZipFile zipFile = new ZipFile(source)) {
+      byte[] index = buildIndex(zipFile);
+      try (OutputStream outputStream = new FileOutputStream(destination)) {
+        // 保留可执行jar的启动脚本
+        // Keep the launch script of the executable jar
+        outputStream.write(readPreamble(source));
+        ZipArchiveOutputStream zipOutputStream = new ZipArchiveOutputStream(outputStream);
+        ZipArchiveEntry manifestEntry = zipFile.getEntry(JarFile.MANIFEST_NAME);
+        if (flattenLibraries) {
+          try (FlattenedLibraries flattened = new FlattenedLibraries(
+              destination.getAbsoluteFile().getParentFile())) {
+            copyEntries(zipFile, zipOutputStream, flattened);
+            flattened.writeTo(zipOutputStream,
+                manifestEntry != null ? manifestEntry.getTime() : System.currentTimeMillis());
+            flattenedLibraries = flattened;
+          }
+        } else if (storeClasses || storeLibraries || startupRanks != null) {
+          copyEntries(zipFile, zipOutputStream, null);
+        } else {
+          zipFile.copyRawEntries(zipOutputStream, new ZipArchiveEntryPredicate() {
+            @Override
+            public boolean test(ZipArchiveEntry entry) {
+              return !isGenerated(entry.getName());
+            }
+          });
+        }
+        ZipArchiveEntry indexEntry = new ZipArchiveEntry(INDEX_LOCATION);
+        if (manifestEntry != null) {
+          // 保证可重复构建
+          // Keep the build reproducible
+          indexEntry.setTime(manifestEntry.getTime());
+        }
+        zipOutputStream.putArchiveEntry(indexEntry);
+        zipOutputStream.write(index);
+        zipOutputStream.closeArchiveEntry();
+        if (!startupEntryCounts.isEmpty()) {
+          ZipArchiveEntry startupLayoutEntry = new ZipArchiveEntry(STARTUP_LAYOUT_LOCATION);
+          startupLayoutEntry.setTime(indexEntry.getTime());
+          zipOutputStream.putArchiveEntry(startupLayoutEntry);
+          zipOutputStream.write(buildStartupLayout());
+          zipOutputStream.closeArchiveEntry();
+        }
+        zipOutputStream.finish();
+      }
+    } catch (IOException | RuntimeException e) {
+      destination.delete();
+      throw e;
+    }
+    destinationSize = destination.length();
+    boolean executable = source.canExecute();
+    Files.move(destination.toPath(), source.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    if (executable) {
+      source.setExecutable(true, false);
+    }
+  }
+
+  /**
+   * 返回上次repackage的体积与启动耗时的权衡, 解压耗时为构建机上的实测值
+   * Returns the size versus startup time trade-off of the last repackage, the inflate time is the
+   * one measured on the build machine
+   */
+  public String getReport() {
+    long growth = destinationSize - sourceSize;
+    String report = String.format(Locale.ENGLISH,
+        "ares-turbo: stored %d entries (%d bytes), jar size %d -> %d bytes (%+.1f%%), "
+            + "inflate time saved per full read about %.1f ms",
+        storedEntries, storedBytes, sourceSize, destinationSize,
+        sourceSize > 0 ? growth * 100.0 / sourceSize : 0, inflateNanos / 1000000.0);
+    if (!startupEntryCounts.isEmpty()) {
+      int count = 0;
+      for (Integer archiveCount : startupEntryCounts.values()) {
+        count += archiveCount;
+      }
+      report += String.format(Locale.ENGLISH, ", placed %d entries of %d archives in startup order",
+          count, startupEntryCounts.size());
+    }
+    if (flattenedLibraries != null) {
+      report += String.format(Locale.ENGLISH,
+          ", flattened %d jars into %d entries (%d duplicates)",
+          flattenedLibraries.getJarCount(), flattenedLibraries.getEntryCount(),
+          flattenedLibraries.getDuplicatedEntryCount());
+    }
+    return report;
+  }
+
+  private static boolean isGenerated(String name) {
+    return INDEX_LOCATION.equals(name) || STARTUP_LAYOUT_LOCATION.equals(name)
+        || FlattenedLibraries.LOCATION.equals(name);
+  }
+
+  /*
+   * Copies the entries in their order, the classes reordered by the startup
+   * profile, the selected ones are rewritten and the others copied raw
+   */
+  private void copyEntries(ZipFile zipFile, ZipArchiveOutputStream zipOutputStream,
+      FlattenedLibraries flattened) throws IOException {
+    for (ZipArchiveEntry entry : orderEntries(zipFile)) {
+      String name = entry.getName();
+      if (isGenerated(name)) {
+        continue;
+      }
+      if (storeClasses && name.startsWith(CLASSES_LOCATION) && name.endsWith(CLASS_SUFFIX)
+          && entry.getMethod() != ZipEntry.STORED) {
+        writeStored(zipOutputStream, entry, readEntry(zipFile, entry));
+        storedEntries++;
+        storedBytes += entry.getSize();
+      } else if ((storeLibraries || startupRanks != null || flattened != null)
+          && name.startsWith(LIB_LOCATION) && name.endsWith(JAR_SUFFIX) && !entry.isDirectory()) {
+        byte[] bytes = readEntry(zipFile, entry);
+        byte[] stored = rewriteEntries(name, bytes);
+        if (stored != null) {
+          writeStored(zipOutputStream, entry, stored);
+        } else {
+          zipOutputStream.addRawArchiveEntry(entry, zipFile.getRawInputStream(entry));
+        }
+        if (flattened != null) {
+          flattened.add(name, stored != null ? stored : bytes);
+        }
+      } else {
+        zipOutputStream.addRawArchiveEntry(entry, zipFile.getRawInputStream(entry));
+      }
+    }
+  }
+
+  private byte[] readEntry(ZipFile zipFile, ZipArchiveEntry entry) throws IOException {
+    long start = System.nanoTime();
+    try (InputStream inputStream = zipFile.getInputStream(entry)) {
+      byte[] bytes = IOUtils.toByteArray(inputStream);
+      if (entry.getMethod() != ZipEntry.STORED) {
+        inflateNanos += System.nanoTime() - start;
+      }
+      return bytes;
+    }
+  }
+
+  /*
+   * Returns the entries in physical order, the entries of BOOT-INF/classes
+   * in the startup profile placed first in the order of the profile
+   */
+  private List<ZipArchiveEntry> orderEntries(ZipFile zipFile) {
+    List<ZipArchiveEntry> entries = Collections.list(zipFile.getEntriesInPhysicalOrder());
+    if (startupRanks == null) {
+      return entries;
+    }
+    List<ZipArchiveEntry> ordered = new ArrayList<>(entries.size());
+    List<ZipArchiveEntry> classes = new ArrayList<>();
+    int classesPosition = -1;
+    for (ZipArchiveEntry entry : entries) {
+      String name = entry.getName();
+      if (name.startsWith(CLASSES_LOCATION) && name.length() > CLASSES_LOCATION.length()) {
+        if (classesPosition == -1) {
+          classesPosition = ordered.size();
+        }
+        classes.add(entry);
+      } else {
+        ordered.add(entry);
+      }
+    }
+    if (classesPosition != -1) {
+      int count = orderByRank(classes, CLASSES_LOCATION.length());
+      if (count > 0) {
+        startupEntryCounts.put(CLASSES_LOCATION.substring(0, CLASSES_LOCATION.length() - 1),
+            count);
+      }
+      ordered.addAll(classesPosition, classes);
+    }
+    return ordered;
+  }
+
+  /*
+   * Moves the entries in the startup profile to the front in the order of
+   * the profile and returns their number, the others keep their order
+   */
+  private int orderByRank(List<ZipArchiveEntry> entries, final int prefixLength) {
+    List<ZipArchiveEntry> ranked = new ArrayList<>();
+    List<ZipArchiveEntry> others = new ArrayList<>();
+    for (ZipArchiveEntry entry : entries) {
+      if (startupRanks.containsKey(entry.getName().substring(prefixLength))) {
+        ranked.add(entry);
+      } else {
+        others.add(entry);
+      }
+    }
+    Collections.sort(ranked, new Comparator<ZipArchiveEntry>() {
+      @Override
+      public int compare(ZipArchiveEntry o1, ZipArchiveEntry o2) {
+        return startupRanks.get(o1.getName().substring(prefixLength))
+            .compareTo(startupRanks.get(o2.getName().substring(prefixLength)));
+      }
+    });
+    entries.clear();
+    entries.addAll(ranked);
+    entries.addAll(others);
+    return ranked.size();
+  }
+
+  /*
+   * Rewrites the nested jar with its entries stored and in startup order as
+   * selected, or returns null if the jar is signed or stays as it is
+   */
+  private byte[] rewriteEntries(String name, byte[] jar) throws IOException {
+    try (ZipFile nested = new ZipFile(new SeekableInMemoryByteChannel(jar))) {
+      boolean compressed = false;
+      boolean ranked = false;
+      Enumeration<ZipArchiveEntry> entries = nested.getEntries();
+      while (entries.hasMoreElements()) {
+        ZipArchiveEntry entry = entries.nextElement();
+        if (isSignatureFile(entry.getName())) {
+          return null;
+        }
+        compressed |= entry.getMethod() != ZipEntry.STORED;
+        ranked |= startupRanks != null && startupRanks.containsKey(entry.getName());
+      }
+      boolean store = storeLibraries && compressed;
+      if (!store && !ranked) {
+        return null;
+      }
+      List<ZipArchiveEntry> ordered = Collections.list(nested.getEntriesInPhysicalOrder());
+      if (ranked) {
+        // 清单保持在最前, 与JarInputStream的约定一致
+        // Keep the manifest first as JarInputStream expects
+        List<ZipArchiveEntry> head = new ArrayList<>();
+        for (ZipArchiveEntry entry : ordered) {
+          if (META_INF.equals(entry.getName())
+              || JarFile.MANIFEST_NAME.equals(entry.getName())) {
+            head.add(entry);
+          }
+        }
+        ordered.removeAll(head);
+        int count = orderByRank(ordered, 0);
+        ordered.addAll(0, head);
+        startupEntryCounts.put(name, head.size() + count);
+      }
+      ByteArrayOutputStream outputStream = new ByteArrayOutputStream(
+          store ? jar.length * 2 : jar.length);
+      try (ZipArchiveOutputStream zipOutputStream = new ZipArchiveOutputStream(outputStream)) {
+        for (ZipArchiveEntry entry : ordered) {
+          if (!store || entry.getMethod() == ZipEntry.STORED) {
+            zipOutputStream.addRawArchiveEntry(entry, nested.getRawInputStream(entry));
+          } else {
+            writeStored(zipOutputStream, entry, readEntry(nested, entry));
+            storedEntries++;
+            storedBytes += entry.getSize();
+          }
+        }
+      }
+      return outputStream.toByteArray();
+    }
+  }
+
+  static boolean isSignatureFile(String name) {
+    if (!name.startsWith(META_INF) || name.indexOf('/', META_INF.length()) != -1) {
+      return false;
+    }
+    String upperCase = name.toUpperCase(Locale.ENGLISH);
+    return upperCase.endsWith(".SF") || upperCase.endsWith(".RSA") || upperCase.endsWith(".DSA")
+        || upperCase.endsWith(".EC");
+  }
+
+  private static void writeStored(ZipArchiveOutputStream zipOutputStream, ZipArchiveEntry entry,
+      byte[] bytes) throws IOException {
+    ZipArchiveEntry storedEntry = new ZipArchiveEntry(entry);
+    CRC32 crc32 = new CRC32();
+    crc32.update(bytes);
+    storedEntry.setMethod(ZipEntry.STORED);
+    storedEntry.setSize(bytes.length);
+    storedEntry.setCompressedSize(bytes.length);
+    storedEntry.setCrc(crc32.getValue());
+    zipOutputStream.putArchiveEntry(storedEntry);
+    zipOutputStream.write(bytes);
+    zipOutputStream.closeArchiveEntry();
+  }
+
+  /*
+   * Reads the entry names of a profile recorded by FastLoadProfile or of a
+   * plain list with one name per line, lines starting with # are ignored
+   */
+  private static Map<String, Integer> readStartupRanks(File file) throws IOException {
+    Map<String, Integer> ranks = new HashMap<>();
+    try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(new FileInputStream(file), UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        line = line.trim();
+        if (line.isEmpty() || line.charAt(0) == '#' || line.startsWith(PROFILE_HEADER_PREFIX)) {
+          continue;
+        }
+        if (!ranks.containsKey(line)) {
+          ranks.put(line, ranks.size());
+        }
+      }
+    }
+    return ranks;
+  }
+
+  private byte[] buildStartupLayout() {
+    StringBuilder builder = new StringBuilder(STARTUP_LAYOUT_HEADER).append('\n');
+    for (Map.Entry<String, Integer> entry : startupEntryCounts.entrySet()) {
+      builder.append(entry.getKey()).append('\t').append(entry.getValue()).append('\n');
+    }
+    return builder.toString().getBytes(UTF_8);
+  }
+
+  /*
+   * Computes the package index of BOOT-INF/classes and every nested jar the same way as
+   * FastJarLoader does at runtime
+   */
+  private byte[] buildIndex(ZipFile zipFile) throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    Writer writer = new OutputStreamWriter(outputStream, UTF_8);
+    writer.write(INDEX_HEADER);
+    writer.write('\n');
+
+    int classesCount = 0;
+    Set<String> classesKeys = new TreeSet<>();
+    Enumeration<ZipArchiveEntry> entries = zipFile.getEntries();
+    while (entries.hasMoreElements()) {
+      ZipArchiveEntry entry = entries.nextElement();
+      String name = entry.getName();
+      if (name.startsWith(CLASSES_LOCATION) && name.length() > CLASSES_LOCATION.length()) {
+        classesCount++;
+        addIndexKey(classesKeys, name.substring(CLASSES_LOCATION.length()));
+      }
+    }
+    if (classesCount > 0) {
+      writeArchive(writer, CLASSES_LOCATION.substring(0, CLASSES_LOCATION.length() - 1),
+          classesCount, classesKeys);
+    }
+
+    entries = zipFile.getEntries();
+    while (entries.hasMoreElements()) {
+      ZipArchiveEntry entry = entries.nextElement();
+      String name = entry.getName();
+      if (name.startsWith(LIB_LOCATION) && name.endsWith(JAR_SUFFIX) && !entry.isDirectory()) {
+        byte[] bytes;
+        try (InputStream inputStream = zipFile.getInputStream(entry)) {
+          bytes = IOUtils.toByteArray(inputStream);
+        }
+        int count = 0;
+        Set<String> keys = new TreeSet<>();
+        try (ZipFile nested = new ZipFile(new SeekableInMemoryByteChannel(bytes))) {
+          Enumeration<ZipArchiveEntry> nestedEntries = nested.getEntries();
+          while (nestedEntries.hasMoreElements()) {
+            count++;
+            addIndexKey(keys, nestedEntries.nextElement().getName());
+          }
+        }
+        writeArchive(writer, name, count, keys);
+      }
+    }
+    writer.flush();
+    return outputStream.toByteArray();
+  }
+
+  private static void addIndexKey(Set<String> keys, String fileName) {
+    // Skip the META-INF directory, the index, and manifest.
+    if (META_INF.equals(fileName) || INDEX_LIST.equals(fileName)
+        || JarFile.MANIFEST_NAME.equals(fileName)) {
+      return;
+    }
+    int pos = fileName.lastIndexOf('/');
+    keys.add(pos != -1 ? fileName.substring(0, pos) : fileName);
+  }
+
+  private static void writeArchive(Writer writer, String name, int entryCount, Set<String> keys)
+      throws IOException {
+    writer.write('@');
+    writer.write(Integer.toString(entryCount));
+    writer.write('\t');
+    writer.write(name);
+    writer.write('\n');
+    for (String key : keys) {
+      writer.write('\t');
+      writer.write(key);
+      writer.write('\n');
+    }
+  }
+
+  /*
+   * Returns the bytes before the first local file header, e.g. the launch script
+   */
+  private static byte[] readPreamble(File file) throws IOException {
+    ByteArrayOutputStream preamble = new ByteArrayOutputStream();
+    try (InputStream inputStream = new BufferedInputStream(new FileInputStream(file))) {
+      int matched = 0;
+      int b;
+      while (matched < LOCAL_FILE_HEADER_SIGNATURE.length && (b = inputStream.read()) != -1) {
+        if (b == LOCAL_FILE_HEADER_SIGNATURE[matched]) {
+          matched++;
+        } else {
+          for (int i = 0; i < matched; i++) {
+            preamble.write(LOCAL_FILE_HEADER_SIGNATURE[i]);
+          }
+          matched = b == LOCAL_FILE_HEADER_SIGNATURE[0] ? 1 : 0;
+          if (matched == 0) {
+            preamble.write(b);
+          }
+        }
+      }
+    }
+    return preamble.toByteArray();
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1) {
+      throw new IllegalArgumentException("Usage: AresTurboRepackager <fat jar> ["
+          + STORE_CLASSES_OPTION + "] [" + STORE_LIBRARIES_OPTION + "] ["
+          + FLATTEN_LIBRARIES_OPTION + "] [" + STARTUP_PROFILE_OPTION + " <profile>]");
+    }
+    AresTurboRepackager repackager = new AresTurboRepackager(new File(args[0]));
+    for (int i = 1; i < args.length; i++) {
+      if (STORE_CLASSES_OPTION.equals(args[i])) {
+        repackager.setStoreClasses(true);
+      } else if (STORE_LIBRARIES_OPTION.equals(args[i])) {
+        repackager.setStoreLibraries(true);
+      } else if (FLATTEN_LIBRARIES_OPTION.equals(args[i])) {
+        repackager.setFlattenLibraries(true);
+      } else if (STARTUP_PROFILE_OPTION.equals(args[i]) && i + 1 < args.length) {
+        repackager.setStartupProfile(new File(args[++i]));
+      } else {
+        throw new IllegalArgumentException("Unknown option: " + args[i]);
+      }
+    }
+    repackager.repackage();
+    if (repackager.storeClasses || repackager.storeLibraries || repackager.flattenLibraries
+        || repackager.startupProfile != null) {
+      System.out.println(repackager.getReport());
+    }
+  }
+
+}
@@ -0,0 +1,165 @@
+package cn.ares.turbo.loader.tools;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.compress.utils.SeekableInMemoryByteChannel;
+
+/**
+ * 将BOOT-INF/lib中的依赖jar合并为一个去重的扁平归档, 并在其中记录每个jar包含的条目, 原有的jar保持不变
+ * Merges the nested jars of BOOT-INF/lib into one flattened archive without duplicated entries,
+ * which records the entries of every jar in it, the nested jars are kept as they are
+ */
+class FlattenedLibraries implements Closeable {
+
+  /**
+   * 与FastMappedZip读取的位置保持一致
+   * Keep in sync with the location read by FastMappedZip
+   */
+  static final String LOCATION = "BOOT-INF/ares-turbo-flat.jar";
+
+  static final String BOUNDARIES_NAME = "META-INF/ares-turbo-flat.idx";
+
+  static final String BOUNDARIES_HEADER = "ares-turbo-flat:1";
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final File file;
+  private final ZipArchiveOutputStream zipOutputStream;
+  private final Map<String, Integer> entryIndexes = new HashMap<>();
+  private final StringBuilder boundaries = new StringBuilder(BOUNDARIES_HEADER).append('\n');
+
+  private int jarCount;
+  private int entryCount;
+  private int duplicatedEntryCount;
+
+  FlattenedLibraries(File directory) throws IOException {
+    file = File.createTempFile("ares-turbo-flat", ".jar", directory);
+    zipOutputStream = new ZipArchiveOutputStream(file);
+  }
+
+  /**
+   * 添加一个依赖jar, 签名jar会被跳过
+   * Adds a nested jar, signed jars are skipped
+   */
+  void add(String name, byte[] jar) throws IOException {
+    try (ZipFile nested = new ZipFile(new SeekableInMemoryByteChannel(jar))) {
+      Enumeration<ZipArchiveEntry> entries = nested.getEntries();
+      while (entries.hasMoreElements()) {
+        if (AresTurboRepackager.isSignatureFile(entries.nextElement().getName())) {
+          return;
+        }
+      }
+      // 按中央目录的顺序记录条目, 与嵌套jar本身的顺序保持一致
+      // Record the entries in the order of the central directory, the order of the nested jar
+      StringBuilder ranges = new StringBuilder();
+      int rangeStart = -1;
+      int rangeEnd = -1;
+      entries = nested.getEntries();
+      while (entries.hasMoreElements()) {
+        ZipArchiveEntry entry = entries.nextElement();
+        String key = entry.getName() + '\u0000' + entry.getCrc() + '\u0000' + entry.getSize();
+        Integer index = entryIndexes.get(key);
+        if (index == null) {
+          index = entryCount++;
+          entryIndexes.put(key, index);
+          zipOutputStream.addRawArchiveEntry(entry, nested.getRawInputStream(entry));
+        } else {
+          duplicatedEntryCount++;
+        }
+        if (index == rangeEnd + 1 && rangeStart != -1) {
+          rangeEnd = index;
+        } else {
+          appendRange(ranges, rangeStart, rangeEnd);
+          rangeStart = rangeEnd = index;
+        }
+      }
+      appendRange(ranges, rangeStart, rangeEnd);
+      boundaries.append(name).append('\t').append(jar.length).append('\t').append(ranges)
+          .append('\n');
+      jarCount++;
+    }
+  }
+
+  private static void appendRange(StringBuilder ranges, int start, int end) {
+    if (start == -1) {
+      return;
+    }
+    if (ranges.length() > 0) {
+      ranges.append(',');
+    }
+    ranges.append(start);
+    if (end != start) {
+      ranges.append('-').append(end);
+    }
+  }
+
+  /**
+   * 以STORED方式将扁平归档写入fat jar, 使其可以被原地读取
+   * Writes the flattened archive stored into the fat jar, so that it can be read in place
+   */
+  void writeTo(ZipArchiveOutputStream fatJarOutputStream, long time) throws IOException {
+    ZipArchiveEntry boundariesEntry = new ZipArchiveEntry(BOUNDARIES_NAME);
+    boundariesEntry.setTime(time);
+    zipOutputStream.putArchiveEntry(boundariesEntry);
+    zipOutputStream.write(boundaries.toString().getBytes(UTF_8));
+    zipOutputStream.closeArchiveEntry();
+    zipOutputStream.close();
+
+    CRC32 crc32 = new CRC32();
+    byte[] buffer = new byte[8192];
+    try (InputStream inputStream = new FileInputStream(file)) {
+      int n;
+      while ((n = inputStream.read(buffer)) != -1) {
+        crc32.update(buffer, 0, n);
+      }
+    }
+    ZipArchiveEntry entry = new ZipArchiveEntry(LOCATION);
+    entry.setTime(time);
+    entry.setMethod(ZipEntry.STORED);
+    entry.setSize(file.length());
+    entry.setCompressedSize(file.length());
+    entry.setCrc(crc32.getValue());
+    fatJarOutputStream.putArchiveEntry(entry);
+    try (InputStream inputStream = new FileInputStream(file)) {
+      int n;
+      while ((n = inputStream.read(buffer)) != -1) {
+        fatJarOutputStream.write(buffer, 0, n);
+      }
+    }
+    fatJarOutputStream.closeArchiveEntry();
+  }
+
+  int getJarCount() {
+    return jarCount;
+  }
+
+  int getEntryCount() {
+    return entryCount;
+  }
+
+  int getDuplicatedEntryCount() {
+    return duplicatedEntryCount;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      zipOutputStream.close();
+    } finally {
+      file.delete();
+    }
+  }
+
+}
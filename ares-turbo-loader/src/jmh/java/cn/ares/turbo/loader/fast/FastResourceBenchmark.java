@@ -0,0 +1,73 @@
+package cn.ares.turbo.loader.fast;
+
+import cn.ares.turbo.loader.util.CollectionUtil;
+import java.io.IOException;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Reads every class of a jar through {@link FastResource#getBytes()}, run with {@code -prof gc}
+ * for the bytes allocated per class. The jar is the spring-boot-loader jar unless a url is given,
+ * e.g. {@code -p url=jar:file:/app.jar!/BOOT-INF/lib/foo.jar!/} for a jar nested in a fat jar.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FastResourceBenchmark {
+
+  /* Each value runs in a fork of its own, the reader is fixed when the loader class initializes */
+  @Param({"jdk", "mmap"})
+  private String reader;
+
+  @Param({""})
+  private String url;
+
+  private FastJarLoader loader;
+  private List<String> names;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    System.setProperty("ares.turbo.classloader.zip-reader", reader);
+    org.springframework.boot.loader.jar.JarFile.registerUrlProtocolHandler();
+    URL jarUrl = url.isEmpty() ? org.springframework.boot.loader.jar.JarFile.class
+        .getProtectionDomain().getCodeSource().getLocation() : new URL(url);
+    loader = new FastJarLoader(jarUrl);
+    names = CollectionUtil.newArrayList();
+    for (String name : loader.getEntryNames()) {
+      if (name.endsWith(".class")) {
+        names.add(name);
+      }
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    loader.close();
+  }
+
+  @Benchmark
+  public void readClasses(Blackhole blackhole) throws IOException {
+    for (String name : names) {
+      blackhole.consume(loader.getResource(name, false).getBytes());
+    }
+  }
+
+}
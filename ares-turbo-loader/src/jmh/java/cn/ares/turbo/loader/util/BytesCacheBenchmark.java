@@ -0,0 +1,67 @@
+package cn.ares.turbo.loader.util;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Looks up random class names shared by the threads and caches the bytes on a miss, like
+ * getResourceAsStream does. The working set of 8192 classes fits in 64MB, the startup case, and
+ * is evicted constantly in 8MB. Run with {@code -t} for other thread counts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class BytesCacheBenchmark {
+
+  private static final int KEYS = 8192;
+
+  @Param({"clock", "lru"})
+  private String eviction;
+
+  @Param({"67108864", "8388608"})
+  private long maxWeight;
+
+  private String[] names;
+  private byte[][] values;
+  private BytesCache cache;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    names = new String[KEYS];
+    values = new byte[KEYS][];
+    for (int i = 0; i < KEYS; i++) {
+      names[i] = "org/example/pkg" + i % 50 + "/Class" + i + ".class";
+      values[i] = new byte[1024 + i % 8 * 1024];
+    }
+    cache = "lru".equals(eviction) ? new BytesLruCache(maxWeight) : new BytesClockCache(maxWeight);
+  }
+
+  @Benchmark
+  public byte[] getOrPut() {
+    int key = ThreadLocalRandom.current().nextInt(KEYS);
+    byte[] bytes = cache.getBytes(names[key]);
+    if (bytes == null) {
+      bytes = values[key];
+      cache.put(names[key], bytes);
+    }
+    return bytes;
+  }
+
+}
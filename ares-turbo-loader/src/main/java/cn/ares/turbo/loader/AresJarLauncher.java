@@ -1,6 +1,5 @@
 package cn.ares.turbo.loader;
 
-import cn.ares.turbo.loader.fast.FastURLClassLoader;
 import java.net.URL;
 import org.springframework.boot.loader.JarLauncher;
 
@@ -9,7 +8,8 @@ public class AresJarLauncher extends JarLauncher {
 
   @Override
   protected ClassLoader createClassLoader(URL[] urls) throws Exception {
-    return new FastURLClassLoader(urls, getClass().getClassLoader());
+    return AresLaunchers.createClassLoader(urls, getClass().getClassLoader(), getArchive(),
+        isExploded(), getArchiveEntryPathPrefix());
   }
 
   public static void main(String[] args) throws Exception {
@@ -0,0 +1,41 @@
+package cn.ares.turbo.loader;
+
+import cn.ares.turbo.loader.fast.FastURLClassLoader;
+import java.net.MalformedURLException;
+import java.net.URL;
+import org.springframework.boot.loader.archive.Archive;
+
+
+/**
+ * The class loader creation shared by the launchers of executable archives, which extend different
+ * Spring Boot launchers
+ */
+final class AresLaunchers {
+
+  /**
+   * The class path index written by {@code AresTurboRepackager}, if present
+   */
+  static final String TURBO_INDEX_FILE_NAME = "ares-turbo.idx";
+
+  private AresLaunchers() {
+  }
+
+  /**
+   * Creates the class loader of an archive, whose index is located under the entry path prefix
+   */
+  static ClassLoader createClassLoader(URL[] urls, ClassLoader parent, Archive archive,
+      boolean exploded, String entryPathPrefix) throws MalformedURLException {
+    return new FastURLClassLoader(urls, parent, getArchiveRootUrl(archive, exploded),
+        entryPathPrefix + TURBO_INDEX_FILE_NAME);
+  }
+
+  /*
+   * Returns the root URL the nested archive URLs are relative to
+   */
+  private static URL getArchiveRootUrl(Archive archive, boolean exploded)
+      throws MalformedURLException {
+    URL url = archive.getUrl();
+    return exploded ? url : new URL("jar:" + url + "!/");
+  }
+
+}
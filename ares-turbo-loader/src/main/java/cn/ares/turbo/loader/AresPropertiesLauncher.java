@@ -0,0 +1,23 @@
+package cn.ares.turbo.loader;
+
+import cn.ares.turbo.loader.fast.FastURLClassLoader;
+import java.net.URL;
+import org.springframework.boot.loader.PropertiesLauncher;
+
+
+/**
+ * Launches an expanded archive, the class path configured by {@code loader.path} is searched by the
+ * indexed class path, which is scanned at startup
+ */
+public class AresPropertiesLauncher extends PropertiesLauncher {
+
+  @Override
+  protected ClassLoader createClassLoader(URL[] urls) throws Exception {
+    return new FastURLClassLoader(urls, getClass().getClassLoader());
+  }
+
+  public static void main(String[] args) throws Exception {
+    new AresPropertiesLauncher().launch(args);
+  }
+
+}
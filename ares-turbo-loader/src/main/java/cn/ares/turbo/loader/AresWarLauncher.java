@@ -0,0 +1,23 @@
+package cn.ares.turbo.loader;
+
+import java.net.URL;
+import org.springframework.boot.loader.WarLauncher;
+
+
+/**
+ * Launches an executable war, packed or exploded, the jars of WEB-INF/lib and WEB-INF/lib-provided
+ * and WEB-INF/classes are searched by the indexed class path
+ */
+public class AresWarLauncher extends WarLauncher {
+
+  @Override
+  protected ClassLoader createClassLoader(URL[] urls) throws Exception {
+    return AresLaunchers.createClassLoader(urls, getClass().getClassLoader(), getArchive(),
+        isExploded(), getArchiveEntryPathPrefix());
+  }
+
+  public static void main(String[] args) throws Exception {
+    new AresWarLauncher().launch(args);
+  }
+
+}
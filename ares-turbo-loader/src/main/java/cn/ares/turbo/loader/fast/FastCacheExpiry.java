@@ -0,0 +1,165 @@
+package cn.ares.turbo.loader.fast;
+
+import cn.ares.turbo.loader.util.BytesCache;
+import cn.ares.turbo.loader.util.NameThreadFactory;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Expires the cache of a {@link FastURLClassLoader} once the startup is over, which is either
+ * signalled explicitly, detected by the cache not being accessed for a while, or assumed after a
+ * maximum lifetime, whichever comes first. The cached bytes are then released progressively, the
+ * least valuable first, so that the classes still loaded meanwhile keep hitting the rest.
+ */
+class FastCacheExpiry {
+
+  /* Shared by all loaders, its daemon thread does not keep the JVM alive */
+  private static final ScheduledThreadPoolExecutor SCHEDULER = newScheduler();
+
+  /* The weight is halved per period until it falls below the minimum */
+  private static final long TRIM_PERIOD_MILLIS = 1000;
+  private static final long MIN_TRIM_WEIGHT = 1024 * 1024;
+
+  private final AtomicReference<BytesCache> cacheHolder;
+  private final long lifetimeSeconds;
+  private final long idleSeconds;
+  /* Run once when the cache expires, e.g. to finish the profile */
+  private final Runnable expireListener;
+
+  /* Set by the accesses, reset by each idle check */
+  private volatile boolean accessed;
+  private final AtomicBoolean expired = new AtomicBoolean();
+  private volatile ScheduledFuture<?> lifetimeFuture;
+  private volatile ScheduledFuture<?> idleFuture;
+  /* Only read and written by the idle check, whether the cache was ever accessed */
+  private boolean started;
+
+  FastCacheExpiry(AtomicReference<BytesCache> cacheHolder, long lifetimeSeconds,
+      long idleSeconds, Runnable expireListener) {
+    this.cacheHolder = cacheHolder;
+    this.lifetimeSeconds = lifetimeSeconds;
+    this.idleSeconds = idleSeconds;
+    this.expireListener = expireListener;
+  }
+
+  private static ScheduledThreadPoolExecutor newScheduler() {
+    ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1,
+        new NameThreadFactory().setNameFormat("ares-turbo-cache-expiry-%d").setDaemon(true)
+            .build());
+    scheduler.setRemoveOnCancelPolicy(true);
+    return scheduler;
+  }
+
+  void start() {
+    lifetimeFuture = SCHEDULER.schedule(new Runnable() {
+      @Override
+      public void run() {
+        expire();
+      }
+    }, lifetimeSeconds, TimeUnit.SECONDS);
+    if (idleSeconds > 0) {
+      idleFuture = SCHEDULER.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          checkIdle();
+        }
+      }, idleSeconds, idleSeconds, TimeUnit.SECONDS);
+    }
+  }
+
+  /**
+   * Records an access to the cache, which tells whether the startup is still going on. The flag is
+   * only written once per idle period, so the threads loading classes do not contend on it.
+   */
+  void recordAccess() {
+    if (!accessed) {
+      accessed = true;
+    }
+  }
+
+  /*
+   * Expires the cache if it was not accessed during the last period, the
+   * startup has not begun yet as long as it was never accessed
+   */
+  private void checkIdle() {
+    if (accessed) {
+      accessed = false;
+      started = true;
+    } else if (started) {
+      expire();
+    }
+  }
+
+  /**
+   * Regards the startup as finished, the cache is trimmed step by step in the background, only the
+   * first call has an effect.
+   */
+  void expire() {
+    if (!expired.compareAndSet(false, true)) {
+      return;
+    }
+    cancel();
+    SCHEDULER.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          expireListener.run();
+        } finally {
+          trim();
+        }
+      }
+    });
+  }
+
+  /*
+   * Halves the weight of the cache and schedules the next step, releases
+   * the rest once it is small
+   */
+  private void trim() {
+    BytesCache cache = cacheHolder.get();
+    if (cache == null) {
+      return;
+    }
+    long weight = cache.getWeight();
+    if (weight <= MIN_TRIM_WEIGHT) {
+      if (cacheHolder.compareAndSet(cache, null)) {
+        cache.release();
+      }
+      return;
+    }
+    cache.trim(weight / 2);
+    SCHEDULER.schedule(new Runnable() {
+      @Override
+      public void run() {
+        trim();
+      }
+    }, TRIM_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Releases the cache at once, e.g. when the class loader is closed.
+   */
+  void close() {
+    expired.set(true);
+    cancel();
+    BytesCache cache = cacheHolder.getAndSet(null);
+    if (cache != null) {
+      cache.release();
+    }
+  }
+
+  private void cancel() {
+    ScheduledFuture<?> future = lifetimeFuture;
+    if (future != null) {
+      future.cancel(false);
+    }
+    future = idleFuture;
+    if (future != null) {
+      future.cancel(false);
+    }
+  }
+
+}
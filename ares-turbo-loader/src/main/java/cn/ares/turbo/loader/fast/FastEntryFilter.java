@@ -0,0 +1,102 @@
+package cn.ares.turbo.loader.fast;
+
+import cn.ares.turbo.loader.util.CollectionUtil;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Bloom filter over the entry names of all loaders which can enumerate their entries. A name the
+ * filter rejects is definitely absent from those loaders, so only the remaining loaders, e.g.
+ * directories, need to be probed for it.
+ */
+class FastEntryFilter {
+
+  private static final int BITS_PER_ENTRY = 10;
+  private static final int HASH_COUNT = 7;
+
+  private final long[] bits;
+  private final long bitCount;
+
+  FastEntryFilter(List<FastLoader> loaders) {
+    int entryCount = 0;
+    List<Collection<String>> entryNamesList = CollectionUtil.newArrayList(loaders.size());
+    for (FastLoader loader : loaders) {
+      Collection<String> entryNames = loader.getEntryNames();
+      entryNamesList.add(entryNames);
+      if (entryNames != null) {
+        entryCount += entryNames.size();
+      }
+    }
+    // about 1% false positive rate with 7 hashes and 10 bits per entry
+    int words = (int) Math.max(1, ((long) entryCount * BITS_PER_ENTRY + 63) >>> 6);
+    bits = new long[words];
+    bitCount = (long) words << 6;
+    for (Collection<String> entryNames : entryNamesList) {
+      if (entryNames == null) {
+        continue;
+      }
+      for (String name : entryNames) {
+        add(name);
+        // ZipFile#getEntry also finds the directory entry without its trailing slash
+        if (name.length() > 1 && name.charAt(name.length() - 1) == '/') {
+          add(name.substring(0, name.length() - 1));
+        }
+      }
+    }
+  }
+
+  /*
+   * Restores a filter from its bits, e.g. stored in the index file
+   */
+  FastEntryFilter(long[] bits) {
+    this.bits = bits;
+    this.bitCount = (long) bits.length << 6;
+  }
+
+  private void add(String name) {
+    long hash1 = name.hashCode();
+    long hash2 = hash2(name);
+    for (int i = 0; i < HASH_COUNT; i++) {
+      long bit = ((hash1 + i * hash2) & Long.MAX_VALUE) % bitCount;
+      bits[(int) (bit >>> 6)] |= 1L << bit;
+    }
+  }
+
+  /**
+   * Returns {@code false} if no indexed loader contains the entry of the specified name.
+   */
+  boolean mightContain(String name) {
+    long hash1 = name.hashCode();
+    long hash2 = hash2(name);
+    for (int i = 0; i < HASH_COUNT; i++) {
+      long bit = ((hash1 + i * hash2) & Long.MAX_VALUE) % bitCount;
+      if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /*
+   * A second hash independent of String#hashCode
+   */
+  private static long hash2(String name) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < name.length(); i++) {
+      hash = (hash ^ name.charAt(i)) * 0x100000001b3L;
+    }
+    return hash | 1;
+  }
+
+  long[] getBits() {
+    return bits;
+  }
+
+  /**
+   * Returns the heap size of the filter in bytes.
+   */
+  long getFootprint() {
+    return 16 + 8L * bits.length;
+  }
+
+}
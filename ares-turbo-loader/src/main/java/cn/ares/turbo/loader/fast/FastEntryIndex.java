@@ -0,0 +1,149 @@
+package cn.ares.turbo.loader.fast;
+
+import cn.ares.turbo.loader.util.CollectionUtil;
+import cn.ares.turbo.loader.util.MapUtil;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Index of every entry name to the loaders which contain it, in class path order. A lookup is a
+ * single hash probe, only the loaders which really own the entry are asked for it. Loaders which
+ * can not enumerate their entries, e.g. directories, may change at runtime and are therefore
+ * appended to every owner list at their class path position.
+ */
+class FastEntryIndex {
+
+  private final Map<String, List<FastLoader>> ownersMap;
+
+  private final long footprint;
+
+  FastEntryIndex(List<FastLoader> loaders) {
+    int length = loaders.size();
+    List<FastLoader> unindexed = new ArrayList<>();
+    List<Collection<String>> entryNamesList = CollectionUtil.newArrayList(length);
+    int entryCount = 0;
+    for (FastLoader loader : loaders) {
+      Collection<String> entryNames = loader.getEntryNames();
+      entryNamesList.add(entryNames);
+      if (entryNames == null) {
+        unindexed.add(loader);
+      } else {
+        entryCount += entryNames.size();
+      }
+    }
+
+    // the owner lists are shared, most names are owned by a single loader
+    Map<List<FastLoader>, List<FastLoader>> ownersPool = MapUtil.newHashMap();
+    ownersMap = MapUtil.newHashMap(entryCount);
+    for (int i = 0; i < length; i++) {
+      Collection<String> entryNames = entryNamesList.get(i);
+      if (entryNames == null) {
+        continue;
+      }
+      FastLoader loader = loaders.get(i);
+      List<FastLoader> single = intern(ownersPool, Collections.singletonList(loader));
+      for (String name : entryNames) {
+        addOwner(ownersPool, single, name, loader);
+        // ZipFile#getEntry also finds the directory entry without its trailing slash
+        if (name.length() > 1 && name.charAt(name.length() - 1) == '/') {
+          addOwner(ownersPool, single, name.substring(0, name.length() - 1), loader);
+        }
+      }
+    }
+
+    if (!unindexed.isEmpty()) {
+      Map<List<FastLoader>, List<FastLoader>> merged = MapUtil.newHashMap(ownersPool.size());
+      for (List<FastLoader> owners : ownersPool.keySet()) {
+        merged.put(owners, merge(loaders, unindexed, owners));
+      }
+      for (Entry<String, List<FastLoader>> entry : ownersMap.entrySet()) {
+        entry.setValue(merged.get(entry.getValue()));
+      }
+      ownersPool = merged;
+    }
+    footprint = estimateFootprint(ownersMap, ownersPool.keySet());
+  }
+
+  private void addOwner(Map<List<FastLoader>, List<FastLoader>> ownersPool,
+      List<FastLoader> single, String name, FastLoader loader) {
+    List<FastLoader> owners = ownersMap.get(name);
+    if (owners == null) {
+      ownersMap.put(name, single);
+    } else if (owners.get(owners.size() - 1) != loader) {
+      List<FastLoader> newOwners = new ArrayList<>(owners.size() + 1);
+      newOwners.addAll(owners);
+      newOwners.add(loader);
+      ownersMap.put(name, intern(ownersPool, newOwners));
+    }
+  }
+
+  private static List<FastLoader> intern(Map<List<FastLoader>, List<FastLoader>> ownersPool,
+      List<FastLoader> owners) {
+    List<FastLoader> pooled = ownersPool.get(owners);
+    if (pooled == null) {
+      pooled = Collections.unmodifiableList(owners);
+      ownersPool.put(pooled, pooled);
+    }
+    return pooled;
+  }
+
+  /*
+   * Returns the owners together with the unindexed loaders, in class path order
+   */
+  private static List<FastLoader> merge(List<FastLoader> loaders, List<FastLoader> unindexed,
+      List<FastLoader> owners) {
+    List<FastLoader> result = new ArrayList<>(owners.size() + unindexed.size());
+    for (FastLoader loader : loaders) {
+      if (unindexed.contains(loader) || owners.contains(loader)) {
+        result.add(loader);
+      }
+    }
+    return Collections.unmodifiableList(result);
+  }
+
+  /*
+   * Estimates the retained heap of the index with compressed oops, the strings of the names
+   * are accounted as they are only referenced by the index.
+   */
+  private static long estimateFootprint(Map<String, List<FastLoader>> ownersMap,
+      Collection<List<FastLoader>> ownersLists) {
+    long footprint = 16 + 4L * MapUtil.capacity(ownersMap.size());
+    for (String name : ownersMap.keySet()) {
+      // node + string + char array
+      footprint += 32 + 24 + align(16 + 2L * name.length());
+    }
+    for (List<FastLoader> owners : ownersLists) {
+      // list wrapper + list + array
+      footprint += 40 + align(16 + 4L * owners.size());
+    }
+    return footprint;
+  }
+
+  private static long align(long size) {
+    return (size + 7) & ~7L;
+  }
+
+  /**
+   * Returns the loaders which may contain the entry of the specified name in class path order, or
+   * {@code null} if no indexed loader contains it.
+   */
+  List<FastLoader> get(String name) {
+    return ownersMap.get(name);
+  }
+
+  int size() {
+    return ownersMap.size();
+  }
+
+  /**
+   * Returns the estimated heap size of this index in bytes.
+   */
+  long getFootprint() {
+    return footprint;
+  }
+
+}
@@ -0,0 +1,259 @@
+package cn.ares.turbo.loader.fast;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import cn.ares.turbo.loader.util.CollectionUtil;
+import cn.ares.turbo.loader.util.MapUtil;
+import cn.ares.turbo.loader.util.NameThreadFactory;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The names of all files and directories under a directory, collected by one walk of the file tree,
+ * so that the lookups of a directory loader are answered from memory instead of the file system. In
+ * watch mode a WatchService keeps the names up to date with the files changed at runtime, e.g. the
+ * classes recompiled by an IDE, the changes become visible shortly after they are made.
+ */
+class FastFileIndex implements Closeable {
+
+  private static final ThreadFactory THREAD_FACTORY = new NameThreadFactory()
+      .setNameFormat("ares-turbo-file-watch-%d").setDaemon(true).build();
+
+  private final Path root;
+  /* The names relative to the root separated by slashes, without a trailing slash */
+  private final Set<String> names;
+  private final Set<String> directories;
+  /* null if not watched */
+  private final WatchService watchService;
+  private final Map<WatchKey, String> watchKeys;
+
+  private FastFileIndex(Path root, boolean watch) throws IOException {
+    this.root = root;
+    if (watch) {
+      names = Collections.newSetFromMap(MapUtil.<String, Boolean>newConcurrentMap());
+      directories = Collections.newSetFromMap(MapUtil.<String, Boolean>newConcurrentMap());
+      watchService = root.getFileSystem().newWatchService();
+      watchKeys = MapUtil.newConcurrentMap();
+    } else {
+      names = CollectionUtil.newHashSet();
+      directories = CollectionUtil.newHashSet();
+      watchService = null;
+      watchKeys = null;
+    }
+  }
+
+  /**
+   * Walks the file tree of the specified directory, which is watched for changes afterwards if the
+   * watch flag is set.
+   */
+  static FastFileIndex build(File dir, boolean watch) throws IOException {
+    final FastFileIndex fileIndex = new FastFileIndex(dir.toPath(), watch);
+    try {
+      fileIndex.walk(fileIndex.root, fileIndex.names, fileIndex.directories);
+    } catch (IOException e) {
+      fileIndex.close();
+      throw e;
+    }
+    if (watch) {
+      THREAD_FACTORY.newThread(new Runnable() {
+        @Override
+        public void run() {
+          fileIndex.watch();
+        }
+      }).start();
+    }
+    return fileIndex;
+  }
+
+  /*
+   * Adds the names under the specified directory, the directories are
+   * registered before their content is listed so that no file created
+   * meanwhile is missed
+   */
+  private void walk(Path start, final Set<String> names, final Set<String> directories)
+      throws IOException {
+    Files.walkFileTree(start, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+              throws IOException {
+            String name = getName(dir);
+            if (watchService != null) {
+              watchKeys.put(dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE),
+                  name.isEmpty() ? name : name + '/');
+            }
+            if (!name.isEmpty()) {
+              names.add(name);
+              directories.add(name);
+            }
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+            names.add(getName(file));
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult visitFileFailed(Path file, IOException exc) {
+            // e.g. a broken link or a cycle of links, which can not be read either
+            return FileVisitResult.CONTINUE;
+          }
+
+          private String getName(Path path) {
+            String relative = root.relativize(path).toString();
+            return File.separatorChar == '/' ? relative
+                : relative.replace(File.separatorChar, '/');
+          }
+        });
+  }
+
+  private void watch() {
+    while (true) {
+      WatchKey key;
+      try {
+        key = watchService.take();
+      } catch (InterruptedException e) {
+        return;
+      } catch (ClosedWatchServiceException e) {
+        return;
+      }
+      String prefix = watchKeys.get(key);
+      if (prefix != null) {
+        for (WatchEvent<?> event : key.pollEvents()) {
+          try {
+            if (event.kind() == OVERFLOW) {
+              rebuild();
+            } else if (event.kind() == ENTRY_DELETE) {
+              remove(prefix + event.context());
+            } else {
+              String name = prefix + event.context();
+              Path path = root.resolve(name);
+              if (Files.isDirectory(path)) {
+                walk(path, names, directories);
+              } else {
+                names.add(name);
+              }
+            }
+          } catch (IOException ignore) {
+            // removed meanwhile, the deletion follows
+          } catch (ClosedWatchServiceException e) {
+            return;
+          }
+        }
+      }
+      if (!key.reset()) {
+        watchKeys.remove(key);
+      }
+    }
+  }
+
+  private void remove(String name) {
+    names.remove(name);
+    if (directories.remove(name)) {
+      String prefix = name + '/';
+      for (Iterator<String> it = names.iterator(); it.hasNext(); ) {
+        if (it.next().startsWith(prefix)) {
+          it.remove();
+        }
+      }
+      for (Iterator<String> it = directories.iterator(); it.hasNext(); ) {
+        if (it.next().startsWith(prefix)) {
+          it.remove();
+        }
+      }
+    }
+  }
+
+  /*
+   * Events were lost, walks the whole tree again
+   */
+  private void rebuild() throws IOException {
+    Set<String> currentNames = CollectionUtil.newHashSet(names.size());
+    Set<String> currentDirectories = CollectionUtil.newHashSet(directories.size());
+    walk(root, currentNames, currentDirectories);
+    names.addAll(currentNames);
+    names.retainAll(currentNames);
+    directories.addAll(currentDirectories);
+    directories.retainAll(currentDirectories);
+  }
+
+  /**
+   * Returns whether the file or directory of the specified name exists, the name must be accepted
+   * by {@link #isIndexed(String)}.
+   */
+  boolean contains(String name) {
+    int length = name.length();
+    if (name.charAt(length - 1) == '/') {
+      return names.contains(name.substring(0, length - 1));
+    }
+    return names.contains(name);
+  }
+
+  /**
+   * Returns whether the name can be answered by this index, i.e. it consists of non-empty segments
+   * other than "." and "..", which the file system would resolve differently.
+   */
+  static boolean isIndexed(String name) {
+    int length = name.length();
+    if (length == 0) {
+      return false;
+    }
+    int start = 0;
+    for (int i = 0; i <= length; i++) {
+      if (i == length || name.charAt(i) == '/') {
+        int segment = i - start;
+        if (segment == 0 && i != length || segment == 1 && name.charAt(start) == '.'
+            || segment == 2 && name.charAt(start) == '.' && name.charAt(start + 1) == '.') {
+          return false;
+        }
+        start = i + 1;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the index keys of the directory, the names of the top level and the paths of the nested
+   * directories.
+   */
+  Set<String> getIndexKeys() {
+    Set<String> result = CollectionUtil.newHashSet();
+    result.add("");
+    for (String name : names) {
+      if (name.indexOf('/') == -1) {
+        result.add(name);
+      }
+    }
+    result.addAll(directories);
+    return result;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (watchService != null) {
+      watchService.close();
+    }
+  }
+
+}
@@ -1,21 +1,44 @@
 package cn.ares.turbo.loader.fast;
 
+import cn.ares.turbo.loader.util.BufferUtil;
 import cn.ares.turbo.loader.util.CollectionUtil;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Set;
-import sun.net.www.ParseUtil;
 
 class FastFileLoader extends FastLoader {
 
   protected static final String FILE = "file";
+
+  /*
+   * Smaller files are read onto the heap, opening and unmapping a mapping
+   * costs more than copying them
+   */
+  private static final int MIN_MAPPED_SIZE = 64 * 1024;
+  /*
+   * Whether to index every file of the directories, the lookups are then
+   * answered from memory instead of probing the file system
+   */
+  static final boolean FILE_INDEX = Boolean.getBoolean("ares.turbo.classloader.file-index");
+  /* Whether to keep the file index up to date with the changes at runtime */
+  static final boolean FILE_INDEX_WATCH = Boolean.getBoolean(
+      "ares.turbo.classloader.file-index-watch");
   /* Canonicalized File */
   private final File dir;
   private volatile Set<String> indexKeys;
+  /* The index of all files, null if not enabled or the directory does not exist */
+  private volatile FastFileIndex fileIndex;
+  private volatile boolean fileIndexBuilt;
 
   FastFileLoader(URL url) throws IOException {
     super(url);
@@ -23,7 +46,7 @@ class FastFileLoader extends FastLoader {
       throw new IllegalArgumentException("url");
     }
     String path = url.getFile().replace('/', File.separatorChar);
-    path = ParseUtil.decode(path);
+    path = decodePath(path);
     dir = (new File(path)).getCanonicalFile();
   }
 
@@ -36,6 +59,11 @@ class FastFileLoader extends FastLoader {
   }
 
   private Set<String> getIndexKeys0() {
+    FastFileIndex fileIndex = getFileIndex();
+    if (fileIndex != null) {
+      // the keys come from the same walk
+      return fileIndex.getIndexKeys();
+    }
     Set<String> result = Collections.emptySet();
     if (dir.isDirectory()) {
       File[] subFiles = dir.listFiles();
@@ -57,6 +85,31 @@ class FastFileLoader extends FastLoader {
     return result;
   }
 
+  /*
+   * Returns the index of all files, which is built on first use by walking
+   * the directory once, or null if not enabled
+   */
+  private FastFileIndex getFileIndex() {
+    if (!FILE_INDEX) {
+      return null;
+    }
+    if (!fileIndexBuilt) {
+      synchronized (this) {
+        if (!fileIndexBuilt) {
+          if (dir.isDirectory()) {
+            try {
+              fileIndex = FastFileIndex.build(dir, FILE_INDEX_WATCH);
+            } catch (IOException ignore) {
+              // probe the file system instead
+            }
+          }
+          fileIndexBuilt = true;
+        }
+      }
+    }
+    return fileIndex;
+  }
+
   private void collectDir(Set<String> paths, String prefix, File dir) {
     for (File subFile : dir.listFiles()) {
       if (subFile.isDirectory()) {
@@ -67,6 +120,59 @@ class FastFileLoader extends FastLoader {
     }
   }
 
+  /*
+   * Maps the file, or returns null if it is too small to gain from it, the
+   * smaller files are read onto the heap as usual. The mapping must be
+   * released once consumed.
+   */
+  private static ByteBuffer map(File file) throws IOException {
+    long length = file.length();
+    if (length < MIN_MAPPED_SIZE || length > Integer.MAX_VALUE || !file.isFile()) {
+      return null;
+    }
+    FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    try {
+      // the mapping stays valid after the channel is closed
+      return channel.map(MapMode.READ_ONLY, 0, channel.size());
+    } finally {
+      channel.close();
+    }
+  }
+
+  /*
+   * Returns the names of the files starting with the specified prefix, the
+   * names of directories end with a slash like the entries of a jar.
+   */
+  List<String> getEntryNames(String prefix) {
+    List<String> result = new ArrayList<>();
+    if (prefix.contains("..")) {
+      return result;
+    }
+    String path = prefix.substring(0, prefix.lastIndexOf('/') + 1);
+    File parent = new File(dir, path.replace('/', File.separatorChar));
+    if (parent.isDirectory()) {
+      collectEntryNames(result, prefix, path, parent);
+    }
+    return result;
+  }
+
+  private void collectEntryNames(List<String> names, String prefix, String path, File dir) {
+    File[] subFiles = dir.listFiles();
+    if (null == subFiles) {
+      return;
+    }
+    for (File subFile : subFiles) {
+      boolean directory = subFile.isDirectory();
+      String name = directory ? path + subFile.getName() + "/" : path + subFile.getName();
+      if (name.startsWith(prefix)) {
+        names.add(name);
+        if (directory) {
+          collectEntryNames(names, prefix, name, subFile);
+        }
+      }
+    }
+  }
+
   /*
    * Returns the URL for a resource with the specified name
    */
@@ -78,14 +184,42 @@ class FastFileLoader extends FastLoader {
     return null;
   }
 
+  /*
+   * Whether the name resolves under the base URL as it is, i.e. it is
+   * relative and has no characters a URL would interpret, like the names
+   * of classes, so that the URLs need not be resolved to check it
+   */
+  private static boolean isPlainName(String name) {
+    if (name.isEmpty() || name.charAt(0) == '/' || name.contains("..")) {
+      return false;
+    }
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9'
+          || c == '/' || c == '.' || c == '_' || c == '$' || c == '-')) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   FastResource getResource(final String name, boolean check) {
-    final URL url;
+    URL resolvedURL = null;
     try {
-      URL normalizedBase = new URL(getBaseURL(), ".");
-      url = new URL(getBaseURL(), ParseUtil.encodePath(name, false));
+      if (!isPlainName(name)) {
+        URL normalizedBase = new URL(getBaseURL(), ".");
+        resolvedURL = new URL(getBaseURL(), encodePath(name));
+
+        if (!resolvedURL.getFile().startsWith(normalizedBase.getFile())) {
+          // requested resource had ../..'s in path
+          return null;
+        }
+      }
 
-      if (!url.getFile().startsWith(normalizedBase.getFile())) {
-        // requested resource had ../..'s in path
+      // answered by the file index without probing the file system
+      FastFileIndex fileIndex = resolvedURL == null ? getFileIndex() : null;
+      boolean indexed = fileIndex != null && FastFileIndex.isIndexed(name);
+      if (indexed && !fileIndex.contains(name)) {
         return null;
       }
 
@@ -101,20 +235,30 @@ class FastFileLoader extends FastLoader {
         file = new File(dir, name.replace('/', File.separatorChar));
       }
 
-      if (file.exists()) {
+      if (indexed || file.exists()) {
+        final URL url = resolvedURL;
         return new FastResource() {
+          private URL lazyURL = url;
+
           public String getName() {
             return name;
           }
 
           public URL getURL() {
-            return url;
+            if (lazyURL == null) {
+              lazyURL = getResourceURL(name);
+            }
+            return lazyURL;
           }
 
           public URL getCodeSourceURL() {
             return getBaseURL();
           }
 
+          FastLoader getLoader() {
+            return FastFileLoader.this;
+          }
+
           public InputStream getInputStream() throws IOException {
             return Files.newInputStream(file.toPath());
           }
@@ -122,6 +266,23 @@ class FastFileLoader extends FastLoader {
           public int getContentLength() throws IOException {
             return (int) file.length();
           }
+
+          private ByteBuffer buffer;
+
+          public ByteBuffer getByteBuffer() throws IOException {
+            if (buffer == null) {
+              buffer = map(file);
+            }
+            return buffer;
+          }
+
+          public void releaseByteBuffer() {
+            if (buffer != null) {
+              // only referenced by this resource, unmapped at once
+              BufferUtil.free(buffer);
+              buffer = null;
+            }
+          }
         };
       }
     } catch (Exception e) {
@@ -129,4 +290,12 @@ class FastFileLoader extends FastLoader {
     }
     return null;
   }
+
+  @Override
+  public void close() throws IOException {
+    FastFileIndex fileIndex = this.fileIndex;
+    if (fileIndex != null) {
+      fileIndex.close();
+    }
+  }
 }
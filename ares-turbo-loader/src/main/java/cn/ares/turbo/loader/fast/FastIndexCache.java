@@ -0,0 +1,177 @@
+package cn.ares.turbo.loader.fast;
+
+import cn.ares.turbo.loader.util.CollectionUtil;
+import cn.ares.turbo.loader.util.MapUtil;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index keys of each archive persisted across restarts. An entry is keyed by the URL of the loader
+ * and only reused while the fingerprint of its archive is unchanged, so updating a single jar
+ * rescans that jar only. The cache file is rewritten only when some entry was missing or stale.
+ */
+class FastIndexCache implements FastIndexSource {
+
+  private static final int MAGIC = 0x41544943;
+  private static final int VERSION = 1;
+
+  private final File file;
+
+  private final Map<String, Entry> entries;
+
+  /* Whether some fingerprinted loader was not served from the cache */
+  private volatile boolean dirty;
+
+  private FastIndexCache(File file, Map<String, Entry> entries) {
+    this.file = file;
+    this.entries = entries;
+  }
+
+  /**
+   * Opens the cache of the specified loaders under the directory, a missing or corrupted cache file
+   * results in an empty cache.
+   */
+  static FastIndexCache open(File directory, List<FastLoader> loaders) {
+    File file = new File(directory, getFileName(loaders));
+    Map<String, Entry> entries = MapUtil.newHashMap();
+    if (file.isFile()) {
+      try {
+        read(file, entries);
+      } catch (IOException | RuntimeException e) {
+        // corrupted, rebuilt on this start
+        entries.clear();
+      }
+    }
+    return new FastIndexCache(file, entries);
+  }
+
+  /*
+   * One cache file per class path, so applications sharing the directory don't evict each other
+   */
+  private static String getFileName(List<FastLoader> loaders) {
+    long hash = 1125899906842597L;
+    for (FastLoader loader : loaders) {
+      String url = loader.getBaseURL().toExternalForm();
+      for (int i = 0; i < url.length(); i++) {
+        hash = 31 * hash + url.charAt(i);
+      }
+      hash = 31 * hash + '\n';
+    }
+    return "ares-turbo-" + Long.toHexString(hash) + ".idx";
+  }
+
+  private static void read(File file, Map<String, Entry> entries) throws IOException {
+    DataInputStream inputStream = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(file)));
+    try {
+      if (inputStream.readInt() != MAGIC || inputStream.readInt() != VERSION) {
+        return;
+      }
+      int archiveCount = inputStream.readInt();
+      for (int i = 0; i < archiveCount; i++) {
+        String url = inputStream.readUTF();
+        long fingerprint = inputStream.readLong();
+        int keyCount = inputStream.readInt();
+        Set<String> keys = CollectionUtil.newHashSet(keyCount);
+        for (int j = 0; j < keyCount; j++) {
+          keys.add(inputStream.readUTF());
+        }
+        entries.put(url, new Entry(fingerprint, Collections.unmodifiableSet(keys)));
+      }
+    } finally {
+      inputStream.close();
+    }
+  }
+
+  @Override
+  public Set<String> getIndexKeys(FastLoader loader) {
+    long fingerprint = loader.getFingerprint();
+    if (fingerprint == -1) {
+      return null;
+    }
+    Entry entry = entries.get(loader.getBaseURL().toExternalForm());
+    if (entry == null || entry.fingerprint != fingerprint) {
+      dirty = true;
+      return null;
+    }
+    return entry.keys;
+  }
+
+  /**
+   * Writes the keys of the index back if any loader missed the cache.
+   */
+  void writeIfNecessary(List<FastLoader> loaders, FastLoaderIndex loaderIndex) throws IOException {
+    if (!dirty) {
+      return;
+    }
+    File directory = file.getParentFile();
+    if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+      return;
+    }
+    File temp = File.createTempFile(file.getName(), ".tmp", directory);
+    try {
+      DataOutputStream outputStream = new DataOutputStream(
+          new BufferedOutputStream(new FileOutputStream(temp)));
+      try {
+        int archiveCount = 0;
+        for (int i = 0; i < loaders.size(); i++) {
+          if (loaders.get(i).getFingerprint() != -1 && loaderIndex.getLoaderIndexKeys(i) != null) {
+            archiveCount++;
+          }
+        }
+        outputStream.writeInt(MAGIC);
+        outputStream.writeInt(VERSION);
+        outputStream.writeInt(archiveCount);
+        for (int i = 0; i < loaders.size(); i++) {
+          FastLoader loader = loaders.get(i);
+          long fingerprint = loader.getFingerprint();
+          Set<String> keys = loaderIndex.getLoaderIndexKeys(i);
+          if (fingerprint == -1 || keys == null) {
+            continue;
+          }
+          outputStream.writeUTF(loader.getBaseURL().toExternalForm());
+          outputStream.writeLong(fingerprint);
+          outputStream.writeInt(keys.size());
+          for (String key : keys) {
+            outputStream.writeUTF(key);
+          }
+        }
+      } finally {
+        outputStream.close();
+      }
+      try {
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+      dirty = false;
+    } finally {
+      temp.delete();
+    }
+  }
+
+  private static class Entry {
+
+    private final long fingerprint;
+    private final Set<String> keys;
+
+    private Entry(long fingerprint, Set<String> keys) {
+      this.fingerprint = fingerprint;
+      this.keys = keys;
+    }
+  }
+
+}
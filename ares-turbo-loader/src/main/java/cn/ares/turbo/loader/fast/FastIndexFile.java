@@ -0,0 +1,129 @@
+package cn.ares.turbo.loader.fast;
+
+import cn.ares.turbo.loader.util.CollectionUtil;
+import cn.ares.turbo.loader.util.MapUtil;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Class path index embedded into the fat jar at repackage time. Each archive section records the
+ * entry count of the archive it was computed from together with its index keys, so a loader whose
+ * archive no longer matches simply falls back to the runtime scan.
+ */
+class FastIndexFile implements FastIndexSource {
+
+  static final String INDEX_HEADER = "ares-turbo-index:1";
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final String JAR_PREFIX = "jar:";
+  private static final String SEPARATOR = "!/";
+
+  /* The external form of the archive root the index was loaded from */
+  private final String root;
+
+  private final Map<String, Archive> archives;
+
+  private FastIndexFile(String root, Map<String, Archive> archives) {
+    this.root = root;
+    this.archives = archives;
+  }
+
+  /**
+   * Loads the index from the specified location, or returns {@code null} if it is missing or not
+   * readable.
+   */
+  static FastIndexFile loadIfPossible(URL root, String location) {
+    if (root == null || FastJarLoader.META_INF_FILENAMES) {
+      // the embedded index is computed without META-INF file names
+      return null;
+    }
+    try {
+      InputStream inputStream = new URL(root, location).openStream();
+      try {
+        return load(root.toExternalForm(), inputStream);
+      } finally {
+        inputStream.close();
+      }
+    } catch (IOException | NumberFormatException e) {
+      // missing or corrupted, scan at runtime instead
+      return null;
+    }
+  }
+
+  private static FastIndexFile load(String root, InputStream inputStream) throws IOException {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, UTF_8));
+    if (!INDEX_HEADER.equals(reader.readLine())) {
+      return null;
+    }
+    Map<String, Archive> archives = MapUtil.newHashMap();
+    Set<String> keys = null;
+    String line;
+    while ((line = reader.readLine()) != null) {
+      if (line.isEmpty()) {
+        continue;
+      }
+      if (line.charAt(0) == '@') {
+        int pos = line.indexOf('\t');
+        if (pos == -1) {
+          return null;
+        }
+        keys = CollectionUtil.newHashSet();
+        int entryCount = Integer.parseInt(line.substring(1, pos));
+        archives.put(line.substring(pos + 1),
+            new Archive(entryCount, Collections.unmodifiableSet(keys)));
+      } else if (line.charAt(0) == '\t' && keys != null) {
+        keys.add(line.substring(1));
+      } else {
+        return null;
+      }
+    }
+    return new FastIndexFile(root, archives);
+  }
+
+  @Override
+  public Set<String> getIndexKeys(FastLoader loader) {
+    if (!(loader instanceof FastJarLoader)) {
+      return null;
+    }
+    String name = getArchiveName(loader.getBaseURL().toExternalForm());
+    Archive archive = name != null ? archives.get(name) : null;
+    if (archive == null || archive.entryCount != ((FastJarLoader) loader).size()) {
+      return null;
+    }
+    return archive.keys;
+  }
+
+  /*
+   * Returns the archive name relative to the index root, e.g. BOOT-INF/lib/foo.jar for
+   * jar:file:/app.jar!/BOOT-INF/lib/foo.jar!/
+   */
+  private String getArchiveName(String url) {
+    if (!root.startsWith(JAR_PREFIX) && url.startsWith(JAR_PREFIX)) {
+      // plain jar inside an exploded archive
+      url = url.substring(JAR_PREFIX.length());
+    }
+    if (!url.startsWith(root) || !url.endsWith(SEPARATOR)) {
+      return null;
+    }
+    return url.substring(root.length(), url.length() - SEPARATOR.length());
+  }
+
+  private static class Archive {
+
+    private final int entryCount;
+    private final Set<String> keys;
+
+    private Archive(int entryCount, Set<String> keys) {
+      this.entryCount = entryCount;
+      this.keys = keys;
+    }
+  }
+
+}
@@ -0,0 +1,16 @@
+package cn.ares.turbo.loader.fast;
+
+import java.util.Set;
+
+/**
+ * Source of index keys computed ahead of the runtime scan.
+ */
+interface FastIndexSource {
+
+  /**
+   * Returns the index keys of the loader, or {@code null} if the loader is not covered or its
+   * content changed since the keys were computed.
+   */
+  Set<String> getIndexKeys(FastLoader loader);
+
+}
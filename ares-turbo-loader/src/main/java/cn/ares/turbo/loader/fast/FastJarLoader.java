@@ -5,39 +5,85 @@ import static cn.ares.turbo.loader.fast.FastURLClassPath.JAVA_VERSION;
 import static cn.ares.turbo.loader.fast.FastURLClassPath.USER_AGENT_JAVA_VERSION;
 
 import cn.ares.turbo.loader.util.CollectionUtil;
+import cn.ares.turbo.loader.util.MapUtil;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.net.JarURLConnection;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
 import java.net.URLConnection;
-import java.security.AccessControlException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.security.CodeSigner;
 import java.security.cert.Certificate;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentMap;
 import java.util.jar.Attributes;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
-import sun.net.www.ParseUtil;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 
 class FastJarLoader extends FastLoader {
 
   private static final String INDEX_NAME = "META-INF/INDEX.LIST";
 
-  private static final boolean META_INF_FILENAMES = Boolean.getBoolean(
+  static final boolean META_INF_FILENAMES = Boolean.getBoolean(
       "sun.misc.JarIndex.metaInfFilenames");
 
+  private static final int END_HEADER_SIZE = 22;
+  private static final int MAX_COMMENT_SIZE = 0xFFFF;
+
+  private static final int CENTRAL_HEADER_SIZE = 46;
+  private static final int CENTRAL_HEADER_SIGNATURE = 0x02014B50;
+  private static final long UNKNOWN_FINGERPRINT = Long.MIN_VALUE;
+
+  private static final ConcurrentMap<String, ArchiveFingerprint> ARCHIVE_FINGERPRINT_CACHE =
+      MapUtil.newConcurrentMap();
+
+  /*
+   * The reader of local jars, jdk (default) for JarFile or mmap for
+   * FastMappedZip, the latter also reads the jars and directories nested in
+   * a local fat jar and falls back to JarFile for unsupported jars
+   */
+  static final boolean MAPPED_ZIP = "mmap".equals(
+      System.getProperty("ares.turbo.classloader.zip-reader"));
+
+  /* null if the jar is read by the mapped zip */
   private final JarFile jar;
+  /* null if the jar is read by JarFile */
+  private final FastMappedZip zip;
   private final URL csu;
+  /* The local file which contains the jar, may be null, resolved on first use */
+  private volatile File file;
+  private volatile boolean fileResolved;
+  private volatile long fingerprint = UNKNOWN_FINGERPRINT;
   private volatile Set<String> indexKeys;
+  private volatile Manifest manifest;
+  private volatile boolean manifestRead;
+  /* Whether the entries of the jar may carry code signers to verify */
+  private final boolean signed;
+  /*
+   * The view of this jar in the shared mapping of the fat jar it is nested
+   * in, which inflates the entries read by JarFile, opened on first use
+   */
+  private FastMappedZip inflatingZip;
+  private volatile boolean inflatingZipOpened;
   private volatile boolean closed = false;
 
   /*
@@ -48,7 +94,21 @@ class FastJarLoader extends FastLoader {
     super(url.getPath() != null && url.getPath().endsWith("!/") ? url
         : new URL("jar", "", -1, url + "!/", null));
     csu = url;
-    jar = getJarFile(csu);
+    zip = MAPPED_ZIP ? openMappedZip(csu, getFile()) : null;
+    jar = zip == null ? getJarFile(csu) : null;
+    // the mapped zip only reads unsigned jars
+    signed = jar != null && isSigned(getManifest()) && hasSignatureFile(jar);
+    if (zip != null) {
+      // entries placed in startup order by the repackager
+      try {
+        long[] startupRegions = zip.getStartupRegions();
+        if (startupRegions != null) {
+          FastReadAhead.submit(getFile(), startupRegions);
+        }
+      } catch (ZipException ignore) {
+        // the entries are read on demand, a broken one fails when requested
+      }
+    }
   }
 
   @Override
@@ -61,10 +121,7 @@ class FastJarLoader extends FastLoader {
 
   private Set<String> getIndexKeys0() {
     Set<String> ret = CollectionUtil.newHashSet();
-    Enumeration<JarEntry> it = jar.entries();
-    while (it.hasMoreElements()) {
-      JarEntry entry = it.nextElement();
-      String fileName = entry.getName();
+    for (String fileName : getEntryNames()) {
 
       // Skip the META-INF directory, the index, and manifest.
       // Any files in META-INF/ will be indexed explicitly
@@ -83,7 +140,7 @@ class FastJarLoader extends FastLoader {
           packageName = fileName;
         }
         ret.add(packageName);
-      } else if (!entry.isDirectory()) {
+      } else if (!fileName.endsWith("/")) {
         // Add files under META-INF explicitly so that certain
         // services, like ServiceLoader, etc, can be located
         // with greater accuracy. Directories can be skipped
@@ -95,9 +152,229 @@ class FastJarLoader extends FastLoader {
     return ret;
   }
 
+  @Override
+  Collection<String> getEntryNames() {
+    if (zip != null) {
+      return zip.getNames();
+    }
+    List<String> entryNames = CollectionUtil.newArrayList(jar.size());
+    Enumeration<JarEntry> it = jar.entries();
+    while (it.hasMoreElements()) {
+      entryNames.add(it.nextElement().getName());
+    }
+    return entryNames;
+  }
+
+  /*
+   * Returns the number of entries in the jar file.
+   */
+  int size() {
+    return zip != null ? zip.size() : jar.size();
+  }
+
+  /*
+   * Returns whether this nested jar is read by itself although the
+   * repackager flattened it
+   */
+  boolean isFlattenedFallback() {
+    return zip != null && zip.isFlattenedFallback();
+  }
+
+  /*
+   * Returns the local file which contains the jar, or null, the lookup is
+   * deferred to the features which need it
+   */
+  private File getFile() {
+    if (!fileResolved) {
+      file = getArchiveFile(csu);
+      fileResolved = true;
+    }
+    return file;
+  }
+
+  @Override
+  long getFingerprint() {
+    if (fingerprint == UNKNOWN_FINGERPRINT) {
+      fingerprint = computeFingerprint();
+    }
+    return fingerprint;
+  }
+
+  /*
+   * A jar nested in a fat jar is fingerprinted by its own entry, so that
+   * rebuilding the fat jar keeps the fingerprints of the unchanged jars,
+   * any other archive by its central directory
+   */
+  private long computeFingerprint() {
+    File file = getFile();
+    if (file == null) {
+      return -1;
+    }
+    long length = file.length();
+    long lastModified = file.lastModified();
+    // nested jars of one fat jar share the central directory of the outer archive
+    String cacheKey = file.getPath() + '\u0000' + length + '\u0000' + lastModified;
+    ArchiveFingerprint archiveFingerprint = ARCHIVE_FINGERPRINT_CACHE.get(cacheKey);
+    if (archiveFingerprint == null) {
+      try {
+        archiveFingerprint = readArchiveFingerprint(file);
+      } catch (IOException e) {
+        return -1;
+      }
+      ARCHIVE_FINGERPRINT_CACHE.put(cacheKey, archiveFingerprint);
+    }
+    long fingerprint = size();
+    String nestedName = getNestedName(csu);
+    Long nestedFingerprint = nestedName != null
+        ? archiveFingerprint.nestedJars.get(nestedName) : null;
+    if (nestedFingerprint != null) {
+      return 31 * fingerprint + nestedFingerprint;
+    }
+    fingerprint = 31 * fingerprint + length;
+    fingerprint = 31 * fingerprint + lastModified;
+    fingerprint = 31 * fingerprint + archiveFingerprint.crc;
+    return fingerprint;
+  }
+
+  /*
+   * The CRC-32 of the central directory of an archive, and the CRC-32 and
+   * size of each jar stored in it
+   */
+  private static final class ArchiveFingerprint {
+
+    private final long crc;
+    private final Map<String, Long> nestedJars;
+
+    private ArchiveFingerprint(long crc, Map<String, Long> nestedJars) {
+      this.crc = crc;
+      this.nestedJars = nestedJars;
+    }
+  }
+
+  /*
+   * Reads the central directory of the zip file, or the archive tail if the
+   * end record points to a zip64 central directory, which has no nested jars
+   */
+  private static ArchiveFingerprint readArchiveFingerprint(File file) throws IOException {
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+    try {
+      long length = randomAccessFile.length();
+      int tailLength = (int) Math.min(length, END_HEADER_SIZE + MAX_COMMENT_SIZE);
+      byte[] tail = new byte[tailLength];
+      randomAccessFile.seek(length - tailLength);
+      randomAccessFile.readFully(tail);
+      CRC32 crc32 = new CRC32();
+      for (int end = tailLength - END_HEADER_SIZE; end >= 0; end--) {
+        if (tail[end] == 'P' && tail[end + 1] == 'K' && tail[end + 2] == 5
+            && tail[end + 3] == 6) {
+          long centralDirectorySize = getInt(tail, end + 12);
+          long centralDirectoryStart = length - tailLength + end - centralDirectorySize;
+          if (centralDirectorySize == 0xFFFFFFFFL || centralDirectoryStart < 0) {
+            break;
+          }
+          byte[] centralDirectory = new byte[(int) centralDirectorySize];
+          randomAccessFile.seek(centralDirectoryStart);
+          randomAccessFile.readFully(centralDirectory);
+          crc32.update(centralDirectory);
+          return new ArchiveFingerprint(crc32.getValue(), getNestedJars(centralDirectory));
+        }
+      }
+      crc32.update(tail);
+      return new ArchiveFingerprint(crc32.getValue(), Collections.<String, Long>emptyMap());
+    } finally {
+      randomAccessFile.close();
+    }
+  }
+
+  /*
+   * Returns the CRC-32 and size of each jar listed in the central directory
+   */
+  private static Map<String, Long> getNestedJars(byte[] centralDirectory) {
+    Map<String, Long> nestedJars = MapUtil.newHashMap();
+    int offset = 0;
+    while (offset + CENTRAL_HEADER_SIZE <= centralDirectory.length
+        && getInt(centralDirectory, offset) == CENTRAL_HEADER_SIGNATURE) {
+      int nameLength = getShort(centralDirectory, offset + 28);
+      int nameOffset = offset + CENTRAL_HEADER_SIZE;
+      if (nameOffset + nameLength > centralDirectory.length) {
+        break;
+      }
+      String name = new String(centralDirectory, nameOffset, nameLength,
+          StandardCharsets.UTF_8);
+      if (name.endsWith(".jar")) {
+        long crc = getInt(centralDirectory, offset + 16);
+        long size = getInt(centralDirectory, offset + 24);
+        nestedJars.put(name, 31 * crc + size);
+      }
+      offset = nameOffset + nameLength + getShort(centralDirectory, offset + 30)
+          + getShort(centralDirectory, offset + 32);
+    }
+    return nestedJars;
+  }
+
+  private static long getInt(byte[] bytes, int offset) {
+    return (bytes[offset] & 0xFFL) | (bytes[offset + 1] & 0xFFL) << 8
+        | (bytes[offset + 2] & 0xFFL) << 16 | (bytes[offset + 3] & 0xFFL) << 24;
+  }
+
+  private static int getShort(byte[] bytes, int offset) {
+    return (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8;
+  }
+
+  /*
+   * Returns the manifest of the jar, parsed once for all of its resources
+   */
+  private Manifest getManifest() throws IOException {
+    if (!manifestRead) {
+      manifest = zip != null ? zip.getManifest() : jar.getManifest();
+      manifestRead = true;
+    }
+    return manifest;
+  }
+
+  /*
+   * Only the entries listed in the manifest of a signed jar carry code
+   * signers, a jar without such entries needs no verification at all
+   */
+  private static boolean isSigned(Manifest man) {
+    return man != null && !man.getEntries().isEmpty();
+  }
+
+  /*
+   * Per-entry sections of the manifest alone do not sign a jar, e.g. those
+   * carrying package attributes, it needs a signature file as well
+   */
+  private static boolean hasSignatureFile(JarFile jar) {
+    Enumeration<JarEntry> it = jar.entries();
+    while (it.hasMoreElements()) {
+      if (isSignatureFile(it.nextElement().getName())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /*
+   * Returns whether the entry is a signature file or signature block of a
+   * signer, e.g. META-INF/SIGNER.SF or META-INF/SIGNER.RSA
+   */
+  static boolean isSignatureFile(String name) {
+    if (!name.startsWith("META-INF/") || name.indexOf('/', "META-INF/".length()) != -1) {
+      return false;
+    }
+    String upperCase = name.toUpperCase(Locale.ENGLISH);
+    return upperCase.endsWith(".SF") || upperCase.endsWith(".RSA")
+        || upperCase.endsWith(".DSA") || upperCase.endsWith(".EC");
+  }
+
+  @Override
+  boolean isSigned() {
+    return signed;
+  }
+
   @Override
   public URL[] getClassPath() throws IOException {
-    Manifest man = jar.getManifest();
+    Manifest man = getManifest();
     if (man != null) {
       Attributes attr = man.getMainAttributes();
       if (attr != null) {
@@ -203,13 +480,47 @@ class FastJarLoader extends FastLoader {
     }
   }
 
+  /*
+   * JarFile pools the inflaters of a local jar, while a jar nested in a fat
+   * jar inflates each entry with an inflater of its own, so the entries of
+   * an unsigned nested jar are inflated from the shared mapping with the
+   * inflaters pooled per thread. Returns null if the view can not be opened.
+   */
+  private FastMappedZip getInflatingZip() {
+    if (!inflatingZipOpened) {
+      synchronized (this) {
+        if (!inflatingZipOpened) {
+          if (!signed && !closed && !FILE.equals(csu.getProtocol())) {
+            inflatingZip = openMappedZip(csu, getFile());
+          }
+          inflatingZipOpened = true;
+        }
+      }
+    }
+    return inflatingZip;
+  }
+
   @Override
   public void close() throws IOException {
     // closing is lock at higher level
     if (!closed) {
       closed = true;
       // in case not already open.
-      jar.close();
+      if (jar != null) {
+        jar.close();
+      }
+      if (zip != null) {
+        zip.close();
+      }
+      FastMappedZip inflatingZip;
+      synchronized (this) {
+        inflatingZipOpened = true;
+        inflatingZip = this.inflatingZip;
+        this.inflatingZip = null;
+      }
+      if (inflatingZip != null) {
+        inflatingZip.close();
+      }
     }
   }
 
@@ -223,7 +534,7 @@ class FastJarLoader extends FastLoader {
       String path = null;
       String host = url.getHost();
       if (host == null || host.isEmpty() || "localhost".equalsIgnoreCase(host)) {
-        path = ParseUtil.decode(url.getFile());
+        path = decodePath(url.getFile());
       }
       if (path == null || !new File(path).exists()) {
         throw new FileNotFoundException(path);
@@ -236,25 +547,89 @@ class FastJarLoader extends FastLoader {
   }
 
   /*
-   * Creates the resource and if the check flag is set to true, checks if
-   * is it's okay to return the resource.
+   * Returns the local file of the jar, or of the outermost jar if the
+   * url refers to a nested jar, e.g. jar:file:/app.jar!/BOOT-INF/lib/foo.jar!/
    */
-  FastResource checkResource(final String name, boolean check, final JarEntry entry) {
-    final URL url;
+  private static File getArchiveFile(URL url) {
     try {
-      url = new URL(getBaseURL(), ParseUtil.encodePath(name, false));
+      while ("jar".equals(url.getProtocol())) {
+        String spec = url.getFile();
+        int separator = spec.indexOf("!/");
+        url = new URL(separator != -1 ? spec.substring(0, separator) : spec);
+      }
     } catch (MalformedURLException e) {
       return null;
-    } catch (AccessControlException e) {
+    }
+    if (!FILE.equals(url.getProtocol())) {
       return null;
     }
+    File file = new File(decodePath(url.getFile()));
+    return file.isFile() ? file : null;
+  }
 
+  /*
+   * Opens the mapped zip of a local jar, or of a jar or directory nested in
+   * a local fat jar, e.g. jar:file:/app.jar!/BOOT-INF/lib/foo.jar!/, which
+   * is read from the shared mapping of the fat jar without a connection
+   */
+  private static FastMappedZip openMappedZip(URL url, File file) {
+    if (FILE.equals(url.getProtocol())) {
+      return FastMappedZip.openIfPossible(file);
+    }
+    String name = getNestedName(url);
+    if (file == null || name == null) {
+      return null;
+    }
+    FastMappedZip outer = FastMappedZip.openShared(file);
+    FastMappedZip nested = outer != null ? outer.openNested(name) : null;
+    if (nested == null && outer != null) {
+      // read by JarFile, the shared mapping is not referenced
+      outer.close();
+    }
+    return nested;
+  }
+
+  /*
+   * Returns the name of the entry of a local fat jar the url refers to,
+   * e.g. BOOT-INF/lib/foo.jar, or null if it is not nested exactly once
+   */
+  private static String getNestedName(URL url) {
+    if (!"jar".equals(url.getProtocol())) {
+      return null;
+    }
+    String spec = url.getFile();
+    int separator = spec.indexOf("!/");
+    if (separator == -1 || !spec.startsWith(FILE + ':')) {
+      return null;
+    }
+    String name = spec.substring(separator + 2);
+    if (name.endsWith("!/")) {
+      name = name.substring(0, name.length() - 2);
+    }
+    if (name.contains("!/")) {
+      // nested more than once
+      return null;
+    }
+    return decodePath(name);
+  }
+
+  /*
+   * Creates the resource and if the check flag is set to true, checks if
+   * is it's okay to return the resource. The URL of the resource is created
+   * on first use.
+   */
+  FastResource checkResource(final String name, boolean check, final JarEntry entry) {
     return new FastResource() {
+      private URL url;
+
       public String getName() {
         return name;
       }
 
       public URL getURL() {
+        if (url == null) {
+          url = getResourceURL(name);
+        }
         return url;
       }
 
@@ -262,6 +637,10 @@ class FastJarLoader extends FastLoader {
         return csu;
       }
 
+      FastLoader getLoader() {
+        return FastJarLoader.this;
+      }
+
       public InputStream getInputStream() throws IOException {
         return jar.getInputStream(entry);
       }
@@ -270,16 +649,82 @@ class FastJarLoader extends FastLoader {
         return (int) entry.getSize();
       }
 
+      public byte[] getBytes() throws IOException {
+        if (entry.getMethod() == ZipEntry.DEFLATED) {
+          FastMappedZip inflatingZip = getInflatingZip();
+          int index = inflatingZip != null ? inflatingZip.indexOf(name) : -1;
+          if (index != -1 && inflatingZip.getSize(index) == entry.getSize()) {
+            return inflatingZip.getBytes(index);
+          }
+        }
+        return super.getBytes();
+      }
+
+      public ByteBuffer getByteBuffer() throws IOException {
+        // an inflating stream is never backed by a buffer
+        return entry.getMethod() == ZipEntry.DEFLATED ? null : super.getByteBuffer();
+      }
+
       public Manifest getManifest() throws IOException {
-        return jar.getManifest();
+        return FastJarLoader.this.getManifest();
       }
 
       public Certificate[] getCertificates() {
-        return entry.getCertificates();
+        return signed ? entry.getCertificates() : null;
       }
 
       public CodeSigner[] getCodeSigners() {
-        return entry.getCodeSigners();
+        return signed ? entry.getCodeSigners() : null;
+      }
+
+    };
+  }
+
+  /*
+   * Creates the resource of the entry at the specified index of the mapped zip
+   */
+  FastResource checkResource(final String name, boolean check, final int index) {
+    return new FastResource() {
+      private URL url;
+
+      public String getName() {
+        return name;
+      }
+
+      public URL getURL() {
+        if (url == null) {
+          url = getResourceURL(name);
+        }
+        return url;
+      }
+
+      public URL getCodeSourceURL() {
+        return csu;
+      }
+
+      FastLoader getLoader() {
+        return FastJarLoader.this;
+      }
+
+      public InputStream getInputStream() throws IOException {
+        return zip.getInputStream(index);
+      }
+
+      public int getContentLength() {
+        return zip.getSize(index);
+      }
+
+      public byte[] getBytes() throws IOException {
+        return zip.getBytes(index);
+      }
+
+      public ByteBuffer getByteBuffer() throws IOException {
+        // a stored class is defined straight from the mapping
+        return zip.isStored(index) ? zip.getRawBuffer(index) : null;
+      }
+
+      public Manifest getManifest() throws IOException {
+        return FastJarLoader.this.getManifest();
       }
 
     };
@@ -301,6 +746,10 @@ class FastJarLoader extends FastLoader {
    */
   @Override
   FastResource getResource(final String name, boolean check) {
+    if (zip != null) {
+      int index = zip.indexOf(name);
+      return index != -1 ? checkResource(name, check, index) : null;
+    }
     final JarEntry entry = jar.getJarEntry(name);
     return entry != null ? checkResource(name, check, entry) : null;
   }
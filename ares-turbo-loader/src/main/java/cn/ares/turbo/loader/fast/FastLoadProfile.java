@@ -0,0 +1,123 @@
+package cn.ares.turbo.loader.fast;
+
+import cn.ares.turbo.loader.util.MapUtil;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The ordered names of the classes and resources requested during startup. The first line holds
+ * the header and the fingerprint of the class path the profile was recorded with, followed by one
+ * entry name per line. A profile recorded with a different class path is stale and ignored.
+ */
+class FastLoadProfile {
+
+  static final String HEADER = "ares-turbo-profile:1";
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final File file;
+  private final long fingerprint;
+  private final ConcurrentMap<String, Boolean> recorded = MapUtil.newConcurrentMap(4096);
+  private final Queue<String> names = new ConcurrentLinkedQueue<>();
+  private volatile boolean finished;
+
+  FastLoadProfile(File file, long fingerprint) {
+    this.file = file;
+    this.fingerprint = fingerprint;
+  }
+
+  /**
+   * Reads the entry names of the profile, or returns {@code null} if the profile is missing,
+   * corrupted or recorded with another class path.
+   */
+  static List<String> read(File file, long fingerprint) {
+    if (!file.isFile()) {
+      return null;
+    }
+    try {
+      BufferedReader reader = new BufferedReader(
+          new InputStreamReader(new FileInputStream(file), UTF_8));
+      try {
+        if (!(HEADER + '\t' + Long.toHexString(fingerprint)).equals(reader.readLine())) {
+          return null;
+        }
+        List<String> names = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+          if (!line.isEmpty()) {
+            names.add(line);
+          }
+        }
+        return names;
+      } finally {
+        reader.close();
+      }
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Records the name of a requested class or resource, only the first request is kept.
+   */
+  void record(String name) {
+    if (!finished && recorded.putIfAbsent(name, Boolean.TRUE) == null) {
+      names.add(name);
+    }
+  }
+
+  /**
+   * Stops recording and writes the profile.
+   */
+  void finish() throws IOException {
+    if (finished) {
+      return;
+    }
+    finished = true;
+    File directory = file.getAbsoluteFile().getParentFile();
+    if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+      return;
+    }
+    File temp = File.createTempFile(file.getName(), ".tmp", directory);
+    try {
+      Writer writer = new BufferedWriter(
+          new OutputStreamWriter(new FileOutputStream(temp), UTF_8));
+      try {
+        writer.write(HEADER);
+        writer.write('\t');
+        writer.write(Long.toHexString(fingerprint));
+        writer.write('\n');
+        for (String name : names) {
+          writer.write(name);
+          writer.write('\n');
+        }
+      } finally {
+        writer.close();
+      }
+      try {
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      temp.delete();
+    }
+  }
+
+}
@@ -1,13 +1,29 @@
 package cn.ares.turbo.loader.fast;
 
+import cn.ares.turbo.loader.util.MapUtil;
 import java.io.IOException;
+import java.net.MalformedURLException;
 import java.net.URL;
+import java.security.AccessControlException;
+import java.security.ProtectionDomain;
+import java.util.Collection;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import sun.net.www.ParseUtil;
 
 abstract class FastLoader {
 
   private final URL base;
 
+  /*
+   * The packages already defined or verified for the classes of this
+   * loader, their sealing can not change afterwards
+   */
+  private final ConcurrentMap<String, Boolean> verifiedPackages = MapUtil.newConcurrentMap();
+
+  /* The protection domain shared by the unsigned classes of this loader */
+  private volatile ProtectionDomain protectionDomain;
+
   /*
    * Creates a new Loader for the specified URL.
    */
@@ -24,6 +40,76 @@ abstract class FastLoader {
 
   abstract Set<String> getIndexKeys();
 
+  /*
+   * Encodes a path for a URL, the internal ParseUtil is only referred to
+   * here and in decodePath
+   */
+  static String encodePath(String path) {
+    return ParseUtil.encodePath(path, false);
+  }
+
+  /*
+   * Decodes the path of a URL
+   */
+  static String decodePath(String path) {
+    return ParseUtil.decode(path);
+  }
+
+  /*
+   * Returns the URL of the resource with the specified name relative to the
+   * base URL, or null if it can not be represented. The resources create
+   * their URL on first use only, the classes defined from them never do.
+   */
+  URL getResourceURL(String name) {
+    try {
+      return new URL(base, encodePath(name));
+    } catch (MalformedURLException e) {
+      return null;
+    } catch (AccessControlException e) {
+      return null;
+    }
+  }
+
+  /*
+   * Returns whether the resources of this loader may carry code signers,
+   * the classes of other loaders are defined without looking them up
+   */
+  boolean isSigned() {
+    return false;
+  }
+
+  boolean isPackageVerified(String packageName) {
+    return verifiedPackages.containsKey(packageName);
+  }
+
+  void setPackageVerified(String packageName) {
+    verifiedPackages.put(packageName, Boolean.TRUE);
+  }
+
+  ProtectionDomain getProtectionDomain() {
+    return protectionDomain;
+  }
+
+  void setProtectionDomain(ProtectionDomain protectionDomain) {
+    this.protectionDomain = protectionDomain;
+  }
+
+  /*
+   * Returns a value which changes whenever the content of this loader
+   * changes, or -1 if this loader can not be fingerprinted cheaply.
+   */
+  long getFingerprint() {
+    return -1;
+  }
+
+  /*
+   * Returns the names of all entries of this loader, or null if they can
+   * not be enumerated or may change at runtime.
+   */
+  Collection<String> getEntryNames() {
+    return null;
+  }
+
   URL[] getClassPath() throws IOException {
     return null;
   }
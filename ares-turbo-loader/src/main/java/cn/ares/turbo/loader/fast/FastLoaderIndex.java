@@ -2,6 +2,7 @@ package cn.ares.turbo.loader.fast;
 
 import cn.ares.turbo.loader.util.CollectionUtil;
 import cn.ares.turbo.loader.util.MapUtil;
+import cn.ares.turbo.loader.util.NameThreadFactory;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -11,6 +12,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -18,17 +20,47 @@ import java.util.concurrent.atomic.AtomicInteger;
  */
 class FastLoaderIndex {
 
+  private static final ThreadFactory THREAD_FACTORY = new NameThreadFactory()
+      .setNameFormat("ares-turbo-entry-index-%d").setDaemon(true).build();
+
   private final Map<String, List<FastLoader>> indexMap;
   private final List<FastLoader> fastFileLoaders = new ArrayList<>();
   private final Set<String> indexKeys;
+  /* The index keys of each loader, null if the index is prebuilt */
+  private final Set<String>[] loaderIndexKeys;
+  /* The index of each entry name, null if not enabled or not built yet */
+  private volatile FastEntryIndex entryIndex;
+  /*
+   * The filter of absent entry names, null if not enabled, covered by the
+   * entry index or not built yet
+   */
+  private volatile FastEntryFilter entryFilter;
+  private final FastLoaderStatistics statistics;
+
+  FastLoaderIndex(final List<FastLoader> loaders, boolean multiThreads,
+      FastLoaderStatistics statistics) {
+    this(loaders, null, multiThreads, statistics);
+  }
 
-  FastLoaderIndex(final List<FastLoader> loaders, boolean multiThreads) {
+  FastLoaderIndex(final List<FastLoader> loaders, FastIndexSource indexSource,
+      boolean multiThreads, FastLoaderStatistics statistics) {
+    this.statistics = statistics;
     final AtomicInteger index = new AtomicInteger(0);
     final int length = loaders.size();
     indexMap = MapUtil.newHashMap(length);
-    final Set<String>[] indexKeysArr = new Set[length];
+    final Set<String>[] indexKeysArr = loaderIndexKeys = new Set[length];
+    // use the precomputed keys if present, only the rest need to be scanned
+    final int[] pending = new int[length];
+    int pendingLength = 0;
+    for (int i = 0; i < length; i++) {
+      if (indexSource == null
+          || (indexKeysArr[i] = indexSource.getIndexKeys(loaders.get(i))) == null) {
+        pending[pendingLength++] = i;
+      }
+    }
+    final int scanLength = pendingLength;
     // multi-thread
-    final int thread = multiThreads ? length > 100 ? 4 : Math.min(length / 10, 4) : 1;
+    final int thread = multiThreads ? scanLength > 100 ? 4 : Math.min(scanLength / 10, 4) : 1;
     final CountDownLatch countDownLatch = new CountDownLatch(thread > 0 ? thread : 1);
     final CopyOnWriteArrayList<Throwable> errors = new CopyOnWriteArrayList<Throwable>();
     final Runnable runnable = new Runnable() {
@@ -36,8 +68,8 @@ class FastLoaderIndex {
       public void run() {
         try {
           int i;
-          while ((i = index.getAndIncrement()) < length) {
-            indexKeysArr[i] = loaders.get(i).getIndexKeys();
+          while ((i = index.getAndIncrement()) < scanLength) {
+            indexKeysArr[pending[i]] = loaders.get(pending[i]).getIndexKeys();
           }
         } catch (Throwable e) {
           errors.add(e);
@@ -89,10 +121,83 @@ class FastLoaderIndex {
     indexKeys = Collections.unmodifiableSet(indexMap.keySet());
   }
 
+  /*
+   * Creates the index over a prebuilt index map, e.g. a mapped index file,
+   * and the filter stored with it, which may be null.
+   */
+  FastLoaderIndex(List<FastLoader> loaders, Map<String, List<FastLoader>> indexMap,
+      FastEntryFilter entryFilter, FastLoaderStatistics statistics) {
+    this.statistics = statistics;
+    this.indexMap = indexMap;
+    this.loaderIndexKeys = null;
+    for (FastLoader loader : loaders) {
+      if (loader instanceof FastFileLoader) {
+        fastFileLoaders.add(loader);
+      }
+    }
+    indexKeys = Collections.unmodifiableSet(indexMap.keySet());
+    this.entryFilter = FastURLClassPath.ENTRY_FILTER && !FastURLClassPath.ENTRY_INDEX
+        ? entryFilter : null;
+  }
+
+  /*
+   * Builds the entry index or the entry filter, whichever is enabled and
+   * not restored yet, on a daemon thread, as every jar is enumerated again.
+   * The lookups are answered by the package index until it is built. The
+   * task runs afterwards, or right away if nothing is to be built, e.g. to
+   * store the filter, it may be null
+   */
+  void buildEntryIndex(final List<FastLoader> loaders, final Runnable task) {
+    final boolean buildIndex = FastURLClassPath.ENTRY_INDEX;
+    boolean buildFilter = FastURLClassPath.ENTRY_FILTER && !buildIndex && entryFilter == null;
+    if (!buildIndex && !buildFilter) {
+      if (task != null) {
+        task.run();
+      }
+      return;
+    }
+    THREAD_FACTORY.newThread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          if (buildIndex) {
+            entryIndex = new FastEntryIndex(loaders);
+          } else {
+            entryFilter = new FastEntryFilter(loaders);
+          }
+          if (task != null) {
+            task.run();
+          }
+        } catch (Throwable ignore) {
+          // e.g. closed meanwhile, the package index is used
+        }
+      }
+    }).start();
+  }
+
+  FastEntryFilter getEntryFilter() {
+    return entryFilter;
+  }
+
   List<FastLoader> get(String name) {
     if (name != null && name.startsWith(".")) {
       return fastFileLoaders;
     }
+    FastEntryIndex entryIndex = this.entryIndex;
+    if (entryIndex != null) {
+      List<FastLoader> owners = entryIndex.get(name);
+      if (owners != null) {
+        return owners;
+      }
+      // absent from every jar, only the directories may contain it
+      statistics.recordRejectedLookup();
+      return fastFileLoaders;
+    }
+    FastEntryFilter entryFilter = this.entryFilter;
+    if (entryFilter != null && !entryFilter.mightContain(name)) {
+      statistics.recordRejectedLookup();
+      return fastFileLoaders;
+    }
     List<FastLoader> loaders;
     if ((loaders = indexMap.get(name)) == null) {
       /* try the package name again */
@@ -108,4 +213,24 @@ class FastLoaderIndex {
   Set<String> getIndexKeys() {
     return indexKeys;
   }
+
+  Map<String, List<FastLoader>> getIndexMap() {
+    return indexMap;
+  }
+
+  /*
+   * Returns the estimated heap size of the entry index, or -1 if not enabled
+   * or not built yet
+   */
+  long getEntryIndexFootprint() {
+    FastEntryIndex entryIndex = this.entryIndex;
+    return entryIndex != null ? entryIndex.getFootprint() : -1;
+  }
+
+  /*
+   * Returns the index keys of the loader at the specified position
+   */
+  Set<String> getLoaderIndexKeys(int index) {
+    return loaderIndexKeys != null ? loaderIndexKeys[index] : null;
+  }
 }
@@ -0,0 +1,241 @@
+package cn.ares.turbo.loader.fast;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runtime statistics of a {@link FastURLClassLoader}, the counters are updated without locking and
+ * may be read at any time.
+ */
+public class FastLoaderStatistics {
+
+  private final AtomicLong lookups = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong rejectedLookups = new AtomicLong();
+  private final AtomicLong prefetches = new AtomicLong();
+  private final AtomicLong prefetchHits = new AtomicLong();
+  private final AtomicLong predefinitions = new AtomicLong();
+  private final AtomicLong byteBufferDefinitions = new AtomicLong();
+  private final AtomicLong byteArrayDefinitions = new AtomicLong();
+  private final AtomicLong byteArrayDefinitionBytes = new AtomicLong();
+  private final AtomicLong verifications = new AtomicLong();
+  private final AtomicLong verificationNanos = new AtomicLong();
+  private final AtomicLong skippedVerifications = new AtomicLong();
+  private final AtomicLong definitionReadBytes = new AtomicLong();
+  private final AtomicLong definitionReadNanos = new AtomicLong();
+  private final AtomicLong cachedDefinitions = new AtomicLong();
+  private final AtomicLong cachedDefinitionBytes = new AtomicLong();
+  private final AtomicLong flattenedFallbacks = new AtomicLong();
+
+  void recordLookup() {
+    lookups.incrementAndGet();
+  }
+
+  void recordMiss() {
+    misses.incrementAndGet();
+  }
+
+  void recordRejectedLookup() {
+    rejectedLookups.incrementAndGet();
+  }
+
+  void recordPrefetch() {
+    prefetches.incrementAndGet();
+  }
+
+  void recordPrefetchHit() {
+    prefetchHits.incrementAndGet();
+  }
+
+  void recordPredefinition() {
+    predefinitions.incrementAndGet();
+  }
+
+  void recordByteBufferDefinition() {
+    byteBufferDefinitions.incrementAndGet();
+  }
+
+  void recordByteArrayDefinition(int length) {
+    byteArrayDefinitions.incrementAndGet();
+    byteArrayDefinitionBytes.addAndGet(length);
+  }
+
+  void recordVerification(long nanos) {
+    verifications.incrementAndGet();
+    verificationNanos.addAndGet(nanos);
+  }
+
+  void recordFlattenedFallback() {
+    flattenedFallbacks.incrementAndGet();
+  }
+
+  void recordSkippedVerification() {
+    skippedVerifications.incrementAndGet();
+  }
+
+  void recordDefinitionRead(int length, long nanos) {
+    definitionReadBytes.addAndGet(length);
+    definitionReadNanos.addAndGet(nanos);
+  }
+
+  void recordCachedDefinition(int length) {
+    cachedDefinitions.incrementAndGet();
+    cachedDefinitionBytes.addAndGet(length);
+  }
+
+  /**
+   * Returns the number of class and resource lookups on the class path.
+   */
+  public long getLookups() {
+    return lookups.get();
+  }
+
+  /**
+   * Returns the number of lookups which found nothing.
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Returns the number of lookups answered as absent from every jar without probing any of them.
+   */
+  public long getRejectedLookups() {
+    return rejectedLookups.get();
+  }
+
+  /**
+   * Returns the number of entries read ahead by replaying the profile.
+   */
+  public long getPrefetches() {
+    return prefetches.get();
+  }
+
+  /**
+   * Returns the number of requests served by an entry read ahead.
+   */
+  public long getPrefetchHits() {
+    return prefetchHits.get();
+  }
+
+  /**
+   * Returns the number of classes of the class list loaded ahead of time, including those already
+   * loaded when their turn came.
+   */
+  public long getPredefinitions() {
+    return predefinitions.get();
+  }
+
+  /**
+   * Returns the number of classes defined from a buffer without copying them onto the heap.
+   */
+  public long getByteBufferDefinitions() {
+    return byteBufferDefinitions.get();
+  }
+
+  /**
+   * Returns the number of classes defined from a heap array.
+   */
+  public long getByteArrayDefinitions() {
+    return byteArrayDefinitions.get();
+  }
+
+  /**
+   * Returns the total size of the heap arrays classes were defined from.
+   */
+  public long getByteArrayDefinitionBytes() {
+    return byteArrayDefinitionBytes.get();
+  }
+
+  /**
+   * Returns the number of classes whose code signers were looked up, which verifies their jar.
+   */
+  public long getVerifications() {
+    return verifications.get();
+  }
+
+  /**
+   * Returns the total time spent looking up code signers, in nanoseconds.
+   */
+  public long getVerificationNanos() {
+    return verificationNanos.get();
+  }
+
+  /**
+   * Returns the number of classes defined from unsigned loaders without looking up code signers.
+   */
+  public long getSkippedVerifications() {
+    return skippedVerifications.get();
+  }
+
+  /**
+   * Returns the total time spent reading, and inflating, the bytes of the classes defined from a
+   * heap array, in nanoseconds.
+   */
+  public long getDefinitionReadNanos() {
+    return definitionReadNanos.get();
+  }
+
+  /**
+   * Returns the number of classes defined from the bytes cached by {@code getResourceAsStream}
+   * instead of reading them again.
+   */
+  public long getCachedDefinitions() {
+    return cachedDefinitions.get();
+  }
+
+  /**
+   * Returns the total size of the cached bytes classes were defined from.
+   */
+  public long getCachedDefinitionBytes() {
+    return cachedDefinitionBytes.get();
+  }
+
+  /**
+   * Returns the estimated time saved by defining classes from cached bytes, in nanoseconds, at the
+   * average cost per byte of the reads done, or 0 if none was done.
+   */
+  public long getSavedReadNanos() {
+    long readBytes = definitionReadBytes.get();
+    return readBytes > 0
+        ? (long) ((double) definitionReadNanos.get() / readBytes * cachedDefinitionBytes.get()) : 0;
+  }
+
+  /**
+   * Returns the ratio of misses to lookups.
+   */
+  public double getMissRate() {
+    long lookupCount = lookups.get();
+    return lookupCount > 0 ? (double) misses.get() / lookupCount : 0;
+  }
+
+  /**
+   * Returns the number of nested jars read by themselves although the repackager flattened them,
+   * e.g. as they changed since or the flattened libraries can not be read.
+   */
+  public long getFlattenedFallbacks() {
+    return flattenedFallbacks.get();
+  }
+
+  @Override
+  public String toString() {
+    return "FastLoaderStatistics{"
+        + "lookups=" + lookups
+        + ", misses=" + misses
+        + ", rejectedLookups=" + rejectedLookups
+        + ", prefetches=" + prefetches
+        + ", prefetchHits=" + prefetchHits
+        + ", predefinitions=" + predefinitions
+        + ", byteBufferDefinitions=" + byteBufferDefinitions
+        + ", byteArrayDefinitions=" + byteArrayDefinitions
+        + ", byteArrayDefinitionBytes=" + byteArrayDefinitionBytes
+        + ", verifications=" + verifications
+        + ", verificationNanos=" + verificationNanos
+        + ", skippedVerifications=" + skippedVerifications
+        + ", definitionReadNanos=" + definitionReadNanos
+        + ", cachedDefinitions=" + cachedDefinitions
+        + ", cachedDefinitionBytes=" + cachedDefinitionBytes
+        + ", flattenedFallbacks=" + flattenedFallbacks
+        + '}';
+  }
+
+}
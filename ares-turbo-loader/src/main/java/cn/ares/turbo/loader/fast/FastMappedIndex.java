@@ -0,0 +1,503 @@
+package cn.ares.turbo.loader.fast;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * Read-only index map searched in place over a memory mapped file. The keys are addressed through a
+ * minimal perfect hash (hash and displace), so a lookup costs two hash computations and one key
+ * comparison and the index itself takes almost no heap.
+ *
+ * <pre>
+ * int magic, int version
+ * int loaderCount, { int urlLength, char[] url, long fingerprint } * loaderCount
+ * int keyCount, int bucketCount
+ * int[bucketCount] seeds
+ * int[keyCount] key offsets
+ * { int keyLength, char[] key, int ordinalCount, int[] ordinals } * keyCount
+ * int filterWordCount, long[filterWordCount] filter bits
+ * </pre>
+ * The filter of the entry names is stored if it was enabled when the file was written, so that it
+ * is restored without enumerating the jars again.
+ */
+class FastMappedIndex extends AbstractMap<String, List<FastLoader>> {
+
+  private static final int MAGIC = 0x41544958;
+  private static final int VERSION = 2;
+
+  /* Average number of keys per bucket */
+  private static final int BUCKET_SIZE = 3;
+  private static final int MAX_SEED = 1 << 20;
+
+  private final ByteBuffer buffer;
+  private final List<FastLoader> loaders;
+  private final int keyCount;
+  private final int bucketCount;
+  private final int seedsOffset;
+  private final int keyOffsetsOffset;
+  /* The loaders of the keys looked up so far, by slot */
+  private final OrdinalList[] lists;
+  /* null if not stored */
+  private final FastEntryFilter entryFilter;
+
+  private FastMappedIndex(ByteBuffer buffer, List<FastLoader> loaders, int position,
+      int filterOffset) {
+    this.buffer = buffer;
+    this.loaders = loaders;
+    this.keyCount = buffer.getInt(position);
+    this.bucketCount = buffer.getInt(position + 4);
+    this.seedsOffset = position + 8;
+    this.keyOffsetsOffset = seedsOffset + 4 * bucketCount;
+    this.lists = new OrdinalList[keyCount];
+    int filterWordCount = buffer.getInt(filterOffset);
+    if (filterWordCount > 0) {
+      long[] bits = new long[filterWordCount];
+      for (int i = 0; i < filterWordCount; i++) {
+        bits[i] = buffer.getLong(filterOffset + 4 + 8 * i);
+      }
+      this.entryFilter = new FastEntryFilter(bits);
+    } else {
+      this.entryFilter = null;
+    }
+  }
+
+  /**
+   * Maps the index file, or returns {@code null} if it is missing or was not written for the
+   * specified loaders.
+   */
+  static FastMappedIndex loadIfPossible(File file, List<FastLoader> loaders) {
+    if (file == null || !file.isFile()) {
+      return null;
+    }
+    try {
+      MappedByteBuffer buffer;
+      FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+      try {
+        // the mapping stays valid after the channel is closed
+        buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+      } finally {
+        channel.close();
+      }
+      if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+          || buffer.getInt(8) != loaders.size()) {
+        return null;
+      }
+      int position = 12;
+      for (FastLoader loader : loaders) {
+        String url = loader.getBaseURL().toExternalForm();
+        int length = buffer.getInt(position);
+        position += 4;
+        if (!equals(buffer, position, length, url)) {
+          return null;
+        }
+        position += 2 * length;
+        long fingerprint = loader.getFingerprint();
+        if (fingerprint == -1 || buffer.getLong(position) != fingerprint) {
+          return null;
+        }
+        position += 8;
+      }
+      int filterOffset = getFilterOffset(buffer, position, loaders.size());
+      if (filterOffset == -1) {
+        return null;
+      }
+      return new FastMappedIndex(buffer, loaders, position, filterOffset);
+    } catch (IOException | RuntimeException e) {
+      // unreadable or truncated, build on heap instead
+      return null;
+    }
+  }
+
+  /*
+   * Checks that the sections following the loaders fit the file, i.e. the
+   * records of the keys follow each other in slot order up to the filter,
+   * which ends the file, and only refer to existing loaders, so that no
+   * lookup reads out of bounds. Returns the offset of the filter, or -1 if
+   * the file is invalid
+   */
+  private static int getFilterOffset(ByteBuffer buffer, int position, int loaderCount) {
+    int limit = buffer.limit();
+    if (limit - position < 8) {
+      return -1;
+    }
+    long keyCount = buffer.getInt(position);
+    long bucketCount = buffer.getInt(position + 4);
+    if (keyCount < 0 || bucketCount < 1) {
+      return -1;
+    }
+    long keyOffsetsOffset = position + 8 + 4 * bucketCount;
+    long recordOffset = keyOffsetsOffset + 4 * keyCount;
+    if (recordOffset > limit) {
+      return -1;
+    }
+    for (int slot = 0; slot < keyCount; slot++) {
+      if (buffer.getInt((int) keyOffsetsOffset + 4 * slot) != recordOffset
+          || limit - recordOffset < 4) {
+        return -1;
+      }
+      long ordinalsOffset = recordOffset + 4 + 2L * buffer.getInt((int) recordOffset);
+      if (ordinalsOffset < recordOffset + 4 || limit - ordinalsOffset < 4) {
+        return -1;
+      }
+      int ordinalCount = buffer.getInt((int) ordinalsOffset);
+      recordOffset = ordinalsOffset + 4 + 4L * ordinalCount;
+      if (ordinalCount < 0 || recordOffset > limit) {
+        return -1;
+      }
+      for (int i = 0; i < ordinalCount; i++) {
+        int ordinal = buffer.getInt((int) ordinalsOffset + 4 + 4 * i);
+        if (ordinal < 0 || ordinal >= loaderCount) {
+          return -1;
+        }
+      }
+    }
+    if (limit - recordOffset < 4) {
+      return -1;
+    }
+    long filterWordCount = buffer.getInt((int) recordOffset);
+    if (filterWordCount < 0 || recordOffset + 4 + 8 * filterWordCount != limit) {
+      return -1;
+    }
+    return (int) recordOffset;
+  }
+
+  /**
+   * Writes the index of the specified loaders to the file. The file is replaced atomically so that
+   * it is never seen half written by a concurrent start. Returns false if any loader cannot be
+   * fingerprinted.
+   *
+   * @param entryFilter the filter of the entry names to store, may be null
+   */
+  static boolean write(File file, List<FastLoader> loaders, Map<String, List<FastLoader>> indexMap,
+      FastEntryFilter entryFilter) throws IOException {
+    Map<FastLoader, Integer> ordinals = new IdentityHashMap<>();
+    long[] fingerprints = new long[loaders.size()];
+    int size = 12;
+    for (int i = 0; i < loaders.size(); i++) {
+      FastLoader loader = loaders.get(i);
+      if ((fingerprints[i] = loader.getFingerprint()) == -1) {
+        return false;
+      }
+      ordinals.put(loader, i);
+      size += 4 + 2 * loader.getBaseURL().toExternalForm().length() + 8;
+    }
+
+    String[] keys = indexMap.keySet().toArray(new String[0]);
+    int keyCount = keys.length;
+    int bucketCount = Math.max(1, (keyCount + BUCKET_SIZE - 1) / BUCKET_SIZE);
+    int[] seeds = new int[bucketCount];
+    int[] slots = placeKeys(keys, bucketCount, seeds);
+    if (slots == null) {
+      return false;
+    }
+    size += 8 + 4 * bucketCount + 4 * keyCount;
+    for (String key : keys) {
+      size += 4 + 2 * key.length() + 4 + 4 * indexMap.get(key).size();
+    }
+    long[] filterBits = entryFilter != null ? entryFilter.getBits() : new long[0];
+    size += 4 + 8 * filterBits.length;
+
+    ByteBuffer buffer = ByteBuffer.allocate(size);
+    buffer.putInt(MAGIC).putInt(VERSION).putInt(loaders.size());
+    for (int i = 0; i < loaders.size(); i++) {
+      putString(buffer, loaders.get(i).getBaseURL().toExternalForm());
+      buffer.putLong(fingerprints[i]);
+    }
+    buffer.putInt(keyCount).putInt(bucketCount);
+    for (int seed : seeds) {
+      buffer.putInt(seed);
+    }
+    int keyOffsetsOffset = buffer.position();
+    ((Buffer) buffer).position(keyOffsetsOffset + 4 * keyCount);
+    for (int slot = 0; slot < keyCount; slot++) {
+      String key = keys[slots[slot]];
+      buffer.putInt(keyOffsetsOffset + 4 * slot, buffer.position());
+      putString(buffer, key);
+      List<FastLoader> keyLoaders = indexMap.get(key);
+      buffer.putInt(keyLoaders.size());
+      for (FastLoader loader : keyLoaders) {
+        buffer.putInt(ordinals.get(loader));
+      }
+    }
+    buffer.putInt(filterBits.length);
+    for (long bits : filterBits) {
+      buffer.putLong(bits);
+    }
+    ((Buffer) buffer).flip();
+
+    File directory = file.getAbsoluteFile().getParentFile();
+    if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create directory " + directory);
+    }
+    File temp = File.createTempFile(file.getName(), ".tmp", directory);
+    try {
+      FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE);
+      try {
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+      } finally {
+        channel.close();
+      }
+      try {
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(temp.toPath());
+    }
+    return true;
+  }
+
+  /*
+   * Hash and displace: the keys are grouped into buckets by their first hash, then the largest
+   * buckets first search a seed that maps all of their keys to free slots. Returns the key index
+   * of every slot, or null if no seed could be found.
+   */
+  private static int[] placeKeys(String[] keys, int bucketCount, int[] seeds) {
+    int keyCount = keys.length;
+    final int[][] buckets = new int[bucketCount][];
+    int[] bucketSizes = new int[bucketCount];
+    for (String key : keys) {
+      bucketSizes[hash(key, 0) % bucketCount]++;
+    }
+    for (int i = 0; i < bucketCount; i++) {
+      buckets[i] = new int[bucketSizes[i]];
+      bucketSizes[i] = 0;
+    }
+    for (int i = 0; i < keyCount; i++) {
+      int bucket = hash(keys[i], 0) % bucketCount;
+      buckets[bucket][bucketSizes[bucket]++] = i;
+    }
+    Integer[] order = new Integer[bucketCount];
+    for (int i = 0; i < bucketCount; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer o1, Integer o2) {
+        return buckets[o2].length - buckets[o1].length;
+      }
+    });
+
+    int[] slots = new int[keyCount];
+    boolean[] taken = new boolean[keyCount];
+    int[] bucketSlots = new int[keyCount];
+    for (int bucket : order) {
+      int[] bucketKeys = buckets[bucket];
+      if (bucketKeys.length == 0) {
+        break;
+      }
+      int seed = 1;
+      for (; seed < MAX_SEED; seed++) {
+        int placed = 0;
+        for (; placed < bucketKeys.length; placed++) {
+          int slot = hash(keys[bucketKeys[placed]], seed) % keyCount;
+          if (taken[slot]) {
+            break;
+          }
+          taken[slot] = true;
+          bucketSlots[placed] = slot;
+        }
+        if (placed == bucketKeys.length) {
+          break;
+        }
+        // roll back the partially placed bucket
+        for (int i = 0; i < placed; i++) {
+          taken[bucketSlots[i]] = false;
+        }
+      }
+      if (seed == MAX_SEED) {
+        return null;
+      }
+      seeds[bucket] = seed;
+      for (int i = 0; i < bucketKeys.length; i++) {
+        slots[bucketSlots[i]] = bucketKeys[i];
+      }
+    }
+    return slots;
+  }
+
+  /*
+   * Returns the filter of the entry names stored with the index, or null
+   */
+  FastEntryFilter getEntryFilter() {
+    return entryFilter;
+  }
+
+  private static int hash(String key, int seed) {
+    int hash = seed * 0x9E3779B9 ^ key.length();
+    for (int i = 0; i < key.length(); i++) {
+      hash = (hash ^ key.charAt(i)) * 0x01000193;
+    }
+    hash ^= hash >>> 16;
+    hash *= 0x85EBCA6B;
+    hash ^= hash >>> 13;
+    hash *= 0xC2B2AE35;
+    hash ^= hash >>> 16;
+    return hash & 0x7FFFFFFF;
+  }
+
+  private static void putString(ByteBuffer buffer, String value) {
+    buffer.putInt(value.length());
+    for (int i = 0; i < value.length(); i++) {
+      buffer.putChar(value.charAt(i));
+    }
+  }
+
+  private static boolean equals(ByteBuffer buffer, int position, int length, String value) {
+    if (length != value.length()) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (buffer.getChar(position + 2 * i) != value.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private String getString(int position) {
+    int length = buffer.getInt(position);
+    char[] chars = new char[length];
+    for (int i = 0; i < length; i++) {
+      chars[i] = buffer.getChar(position + 4 + 2 * i);
+    }
+    return new String(chars);
+  }
+
+  private int getKeyOffset(int slot) {
+    return buffer.getInt(keyOffsetsOffset + 4 * slot);
+  }
+
+  private OrdinalList getLoaders(int keyOffset, String key) {
+    int ordinalsOffset = keyOffset + 4 + 2 * buffer.getInt(keyOffset);
+    return new OrdinalList(key, ordinalsOffset + 4, buffer.getInt(ordinalsOffset));
+  }
+
+  @Override
+  public List<FastLoader> get(Object key) {
+    if (!(key instanceof String) || keyCount == 0) {
+      return null;
+    }
+    String name = (String) key;
+    int seed = buffer.getInt(seedsOffset + 4 * (hash(name, 0) % bucketCount));
+    if (seed == 0) {
+      // empty bucket
+      return null;
+    }
+    int slot = hash(name, seed) % keyCount;
+    OrdinalList list = lists[slot];
+    if (list != null) {
+      return list.key.equals(name) ? list : null;
+    }
+    int keyOffset = getKeyOffset(slot);
+    if (!equals(buffer, keyOffset + 4, buffer.getInt(keyOffset), name)) {
+      return null;
+    }
+    // immutable, so racing lookups may publish it without synchronization
+    list = getLoaders(keyOffset, name);
+    lists[slot] = list;
+    return list;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return get(key) != null;
+  }
+
+  @Override
+  public int size() {
+    return keyCount;
+  }
+
+  @Override
+  public Set<Entry<String, List<FastLoader>>> entrySet() {
+    return new AbstractSet<Entry<String, List<FastLoader>>>() {
+      @Override
+      public Iterator<Entry<String, List<FastLoader>>> iterator() {
+        return new Iterator<Entry<String, List<FastLoader>>>() {
+          private int slot = 0;
+
+          @Override
+          public boolean hasNext() {
+            return slot < keyCount;
+          }
+
+          @Override
+          public Entry<String, List<FastLoader>> next() {
+            if (!hasNext()) {
+              throw new NoSuchElementException();
+            }
+            int keyOffset = getKeyOffset(slot++);
+            String key = getString(keyOffset);
+            return new SimpleImmutableEntry<String, List<FastLoader>>(key,
+                getLoaders(keyOffset, key));
+          }
+
+          @Override
+          public void remove() {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return keyCount;
+      }
+    };
+  }
+
+  /*
+   * The loaders of a key, resolved from their ordinals on each access
+   */
+  private class OrdinalList extends AbstractList<FastLoader> implements RandomAccess {
+
+    private final String key;
+    private final int offset;
+    private final int size;
+
+    private OrdinalList(String key, int offset, int size) {
+      this.key = key;
+      this.offset = offset;
+      this.size = size;
+    }
+
+    @Override
+    public FastLoader get(int index) {
+      if (index < 0 || index >= size) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+      }
+      return loaders.get(buffer.getInt(offset + 4 * index));
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+  }
+
+}
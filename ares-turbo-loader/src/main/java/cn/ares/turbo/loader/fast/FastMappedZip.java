@@ -0,0 +1,863 @@
+package cn.ares.turbo.loader.fast;
+
+import cn.ares.turbo.loader.util.MapUtil;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * A lean zip reader over a memory mapped archive. The central directory is parsed once into
+ * compact arrays, a lookup is a single probe of an open addressing table. Stored entries are served
+ * as slices of the mapping without copying, deflated entries are inflated straight into an array of
+ * their exact size. Archives this reader does not support, e.g. signed jars or those larger than
+ * 2GB, are left to {@link JarFile}. A jar nested stored in a fat jar is read from a slice of the
+ * shared mapping of the fat jar, or from a view of the flattened libraries if the repackager wrote
+ * them, a directory nested in it from a view of the entries under that directory.
+ */
+class FastMappedZip {
+
+  private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+  private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+  private static final int END_HEADER_SIGNATURE = 0x06054b50;
+  private static final int ZIP64_END_HEADER_SIGNATURE = 0x06064b50;
+  private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+  private static final int LOCAL_HEADER_SIZE = 30;
+  private static final int CENTRAL_HEADER_SIZE = 46;
+  private static final int END_HEADER_SIZE = 22;
+  private static final int ZIP64_END_HEADER_SIZE = 56;
+  private static final int ZIP64_LOCATOR_SIZE = 20;
+  private static final int ZIP64_EXTRA_ID = 0x0001;
+  private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+  private static final int MAX_COMMENT_SIZE = 0xFFFF;
+  private static final int STORED = 0;
+  private static final int DEFLATED = 8;
+
+  /*
+   * Guarded by itself, the mapped fat jars shared by their nested archives
+   * until all of them are closed, an empty array if not supported
+   */
+  private static final Map<String, FastMappedZip[]> SHARED_ZIPS = MapUtil.newHashMap();
+
+  /* Inflaters and compressed input arrays reused by the threads loading classes */
+  private static final ThreadLocal<Inflater> INFLATER = new ThreadLocal<Inflater>() {
+    @Override
+    protected Inflater initialValue() {
+      return new Inflater(true);
+    }
+  };
+  private static final int MAX_SCRATCH_SIZE = 256 * 1024;
+  private static final ThreadLocal<byte[]> SCRATCH = new ThreadLocal<byte[]>() {
+    @Override
+    protected byte[] initialValue() {
+      return new byte[8192];
+    }
+  };
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+  /* Keep in sync with the flattened libraries written by the repackager */
+  private static final String FLATTENED_LOCATION = "BOOT-INF/ares-turbo-flat.jar";
+  private static final String FLATTENED_BOUNDARIES_NAME = "META-INF/ares-turbo-flat.idx";
+  private static final String FLATTENED_BOUNDARIES_HEADER = "ares-turbo-flat:1";
+  private static final String STARTUP_LAYOUT_LOCATION = "BOOT-INF/ares-turbo-startup.idx";
+  private static final String STARTUP_LAYOUT_HEADER = "ares-turbo-startup:1";
+  /* Gaps between startup entries up to this size are read along */
+  private static final int MAX_REGION_GAP = 64 * 1024;
+
+  private final ByteBuffer buffer;
+  /* The offset of the buffer in the mapped file */
+  private final int fileOffset;
+  private final String[] names;
+  private final int[] localHeaderOffsets;
+  private final int[] compressedSizes;
+  private final int[] sizes;
+  private final short[] methods;
+  /* The offset of the data of each entry, 0 until the local header is read */
+  private final int[] dataOffsets;
+  /* Open addressing table of entry index + 1 */
+  private final int[] table;
+  /* The archive whose manifest applies, the fat jar of a nested directory */
+  private final FastMappedZip manifestZip;
+  /* The archive which owns the mapping, the fat jar of a nested archive */
+  private final FastMappedZip root;
+
+  /* The key of the mapping shared by the nested archives of a fat jar, or null */
+  private String sharedKey;
+  /* Guarded by SHARED_ZIPS, the number of archives opened from the shared mapping */
+  private int references;
+  private volatile boolean closed;
+
+  private volatile Manifest manifest;
+  private volatile boolean manifestRead;
+
+  /* The flattened libraries of a fat jar and the entries of each nested jar in them */
+  private FastMappedZip flattened;
+  private Map<String, String> flattenedBoundaries;
+  /* Whether the flattened libraries are present but can not be read */
+  private boolean flattenedUnreadable;
+  /* Whether this nested jar is read by itself instead of from the flattened libraries */
+  private boolean flattenedFallback;
+
+  /* The number of leading startup entries of each nested archive of a fat jar */
+  private Map<String, Integer> startupEntryCounts;
+  /* The number of leading entries the repackager placed in startup order */
+  private int startupEntryCount;
+
+  private FastMappedZip(ByteBuffer buffer, int fileOffset, FastMappedZip root)
+      throws ZipException {
+    this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+    this.fileOffset = fileOffset;
+    this.root = root != null ? root : this;
+    int end = findEndHeader(buffer);
+    long entryCount = buffer.getShort(end + 10) & 0xFFFF;
+    long centralDirectorySize = buffer.getInt(end + 12) & 0xFFFFFFFFL;
+    long centralDirectoryOffset = buffer.getInt(end + 16) & 0xFFFFFFFFL;
+    // the central directory is followed by the zip64 end header if any
+    int centralDirectoryEnd = end;
+    int zip64End = findZip64EndHeader(buffer, end);
+    if (zip64End != -1) {
+      // e.g. more than 65535 entries, like the flattened libraries of a large application
+      entryCount = buffer.getLong(zip64End + 32);
+      centralDirectorySize = buffer.getLong(zip64End + 40);
+      centralDirectoryOffset = buffer.getLong(zip64End + 48);
+      centralDirectoryEnd = zip64End;
+    } else if (entryCount == 0xFFFF || centralDirectorySize == ZIP64_MAGIC
+        || centralDirectoryOffset == ZIP64_MAGIC) {
+      throw new ZipException("zip64 end header not found");
+    }
+    if (entryCount < 0 || entryCount > centralDirectoryEnd / CENTRAL_HEADER_SIZE
+        || centralDirectorySize < 0 || centralDirectoryOffset < 0) {
+      throw new ZipException("invalid central directory");
+    }
+    // the archive may be prefixed, e.g. by a launch script
+    long base = centralDirectoryEnd - centralDirectorySize - centralDirectoryOffset;
+    if (base < 0) {
+      throw new ZipException("invalid central directory");
+    }
+    int count = (int) entryCount;
+    names = new String[count];
+    localHeaderOffsets = new int[count];
+    compressedSizes = new int[count];
+    sizes = new int[count];
+    methods = new short[count];
+    dataOffsets = new int[count];
+    table = new int[Integer.highestOneBit(Math.max(count, 1) * 2 - 1) << 1];
+    // parsing a copy is much cheaper than reading the mapping byte by byte
+    byte[] centralDirectory = new byte[(int) centralDirectorySize];
+    ByteBuffer duplicate = buffer.duplicate();
+    ((Buffer) duplicate).position((int) (base + centralDirectoryOffset));
+    duplicate.get(centralDirectory);
+    int position = 0;
+    for (int i = 0; i < count; i++) {
+      if (position + CENTRAL_HEADER_SIZE > centralDirectory.length
+          || getInt(centralDirectory, position) != CENTRAL_HEADER_SIGNATURE) {
+        throw new ZipException("invalid central directory header");
+      }
+      int method = getShort(centralDirectory, position + 10);
+      long compressedSize = getInt(centralDirectory, position + 20) & 0xFFFFFFFFL;
+      long size = getInt(centralDirectory, position + 24) & 0xFFFFFFFFL;
+      int nameLength = getShort(centralDirectory, position + 28);
+      int extraLength = getShort(centralDirectory, position + 30);
+      int commentLength = getShort(centralDirectory, position + 32);
+      long localHeaderOffset = getInt(centralDirectory, position + 42) & 0xFFFFFFFFL;
+      if (position + CENTRAL_HEADER_SIZE + nameLength > centralDirectory.length) {
+        throw new ZipException("invalid central directory header");
+      }
+      if (size == ZIP64_MAGIC || compressedSize == ZIP64_MAGIC
+          || localHeaderOffset == ZIP64_MAGIC) {
+        // the values which do not fit are stored in the zip64 extra field in this order
+        int extra = findZip64Extra(centralDirectory,
+            position + CENTRAL_HEADER_SIZE + nameLength, extraLength);
+        if (size == ZIP64_MAGIC) {
+          size = getLong(centralDirectory, extra);
+          extra += 8;
+        }
+        if (compressedSize == ZIP64_MAGIC) {
+          compressedSize = getLong(centralDirectory, extra);
+          extra += 8;
+        }
+        if (localHeaderOffset == ZIP64_MAGIC) {
+          localHeaderOffset = getLong(centralDirectory, extra);
+        }
+      }
+      if (compressedSize < 0 || compressedSize > Integer.MAX_VALUE
+          || size < 0 || size > Integer.MAX_VALUE
+          || localHeaderOffset < 0 || localHeaderOffset + base > Integer.MAX_VALUE
+          || (method != STORED && method != DEFLATED)) {
+        throw new ZipException("unsupported entry");
+      }
+      names[i] = decodeName(centralDirectory, position + CENTRAL_HEADER_SIZE, nameLength);
+      localHeaderOffsets[i] = (int) (localHeaderOffset + base);
+      compressedSizes[i] = (int) compressedSize;
+      sizes[i] = (int) size;
+      methods[i] = (short) method;
+      position += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+    }
+    manifestZip = this;
+    fillTable();
+  }
+
+  /*
+   * Creates a view of the entries of the parent at the specified indexes,
+   * the names stripped of a prefix of the specified length
+   */
+  private FastMappedZip(FastMappedZip parent, int[] indexes, int prefixLength,
+      FastMappedZip manifestZip) {
+    buffer = parent.buffer;
+    fileOffset = parent.fileOffset;
+    root = parent.root;
+    int count = indexes.length;
+    names = new String[count];
+    localHeaderOffsets = new int[count];
+    compressedSizes = new int[count];
+    sizes = new int[count];
+    methods = new short[count];
+    dataOffsets = new int[count];
+    table = new int[Integer.highestOneBit(Math.max(count, 1) * 2 - 1) << 1];
+    for (int i = 0; i < count; i++) {
+      int j = indexes[i];
+      names[i] = prefixLength > 0 ? parent.names[j].substring(prefixLength) : parent.names[j];
+      localHeaderOffsets[i] = parent.localHeaderOffsets[j];
+      compressedSizes[i] = parent.compressedSizes[j];
+      sizes[i] = parent.sizes[j];
+      methods[i] = parent.methods[j];
+    }
+    this.manifestZip = manifestZip != null ? manifestZip : this;
+    fillTable();
+  }
+
+  private void fillTable() {
+    for (int i = 0; i < names.length; i++) {
+      int slot = names[i].hashCode() & (table.length - 1);
+      while (table[slot] != 0) {
+        // keep the last of duplicated names like ZipFile
+        if (names[table[slot] - 1].equals(names[i])) {
+          break;
+        }
+        slot = (slot + 1) & (table.length - 1);
+      }
+      table[slot] = i + 1;
+    }
+  }
+
+  /**
+   * Maps the specified archive file, or returns {@code null} if it can not be mapped or is not
+   * supported by this reader.
+   */
+  static FastMappedZip openIfPossible(File file) {
+    if (file == null || file.length() > Integer.MAX_VALUE) {
+      return null;
+    }
+    try {
+      RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+      try {
+        // the mapping stays valid after the channel is closed
+        FileChannel channel = randomAccessFile.getChannel();
+        return openIfPossible(channel.map(MapMode.READ_ONLY, 0, channel.size()), 0, null);
+      } finally {
+        randomAccessFile.close();
+      }
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Returns the shared mapping of the specified fat jar, or {@code null} if it can not be mapped or
+   * is not supported by this reader. The fat jar is mapped and its central directory parsed once
+   * for all of its nested archives, each archive opened from it is closed by its own
+   * {@link #close()}, or the returned one if none is.
+   */
+  static FastMappedZip openShared(File file) {
+    if (file == null) {
+      return null;
+    }
+    String key = file.getAbsolutePath();
+    synchronized (SHARED_ZIPS) {
+      FastMappedZip[] shared = SHARED_ZIPS.get(key);
+      if (shared == null) {
+        FastMappedZip zip = openIfPossible(file);
+        if (zip != null) {
+          zip.sharedKey = key;
+        }
+        shared = zip != null ? new FastMappedZip[]{zip} : new FastMappedZip[0];
+        SHARED_ZIPS.put(key, shared);
+      }
+      if (shared.length == 0) {
+        return null;
+      }
+      shared[0].references++;
+      return shared[0];
+    }
+  }
+
+  /**
+   * Opens the archive nested in this one under the specified name, i.e. a stored jar or a
+   * directory, or returns {@code null} if it is missing or not supported by this reader.
+   */
+  FastMappedZip openNested(String name) {
+    if (name.isEmpty()) {
+      return this;
+    }
+    if (name.charAt(name.length() - 1) == '/') {
+      name = name.substring(0, name.length() - 1);
+    }
+    int index = indexOf0(name);
+    if (index != -1) {
+      if (!isStored(index)) {
+        // a compressed jar can not be read in place
+        return null;
+      }
+      FastMappedZip nested = openFlattened(name, sizes[index]);
+      if (nested == null) {
+        try {
+          nested = openIfPossible(getRawBuffer(index), fileOffset + getDataOffset(index),
+              root);
+        } catch (ZipException e) {
+          return null;
+        }
+        if (nested != null) {
+          nested.flattenedFallback = isFlattened(name);
+        }
+      }
+      if (nested != null) {
+        nested.startupEntryCount = getStartupEntryCount(name);
+      }
+      return nested;
+    }
+    if (indexOf0(name + '/') == -1) {
+      return null;
+    }
+    FastMappedZip directory = openDirectory(name + '/');
+    directory.startupEntryCount = getStartupEntryCount(name);
+    return directory;
+  }
+
+  /*
+   * Returns a view of the entries under the directory of the specified
+   * prefix, the directory entry itself excluded like the nested directories
+   * of Spring Boot, with the manifest of this archive
+   */
+  private FastMappedZip openDirectory(String prefix) {
+    int[] indexes = new int[names.length];
+    int count = 0;
+    for (int i = 0; i < names.length; i++) {
+      if (names[i].length() > prefix.length() && names[i].startsWith(prefix)) {
+        indexes[count++] = i;
+      }
+    }
+    return new FastMappedZip(this, Arrays.copyOf(indexes, count), prefix.length(), this);
+  }
+
+  /*
+   * Returns the view of the nested jar of the specified name and size in the
+   * flattened libraries, or null if the jar is not flattened or has changed
+   */
+  private FastMappedZip openFlattened(String name, int size) {
+    readFlattened();
+    String boundary = flattenedBoundaries.get(name);
+    if (boundary == null) {
+      return null;
+    }
+    int separator = boundary.indexOf('\t');
+    if (separator == -1 || !boundary.substring(0, separator).equals(Integer.toString(size))) {
+      return null;
+    }
+    try {
+      int[] indexes = parseRanges(boundary.substring(separator + 1));
+      for (int index : indexes) {
+        if (index < 0 || index >= flattened.names.length) {
+          return null;
+        }
+      }
+      return new FastMappedZip(flattened, indexes, 0, null);
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  /*
+   * Returns whether the jar of the specified name is expected to be read
+   * from the flattened libraries, i.e. they are present and list it, or can
+   * not be read at all
+   */
+  private synchronized boolean isFlattened(String name) {
+    return flattenedUnreadable || flattenedBoundaries.containsKey(name);
+  }
+
+  private synchronized void readFlattened() {
+    if (flattenedBoundaries != null) {
+      return;
+    }
+    Map<String, String> boundaries = Collections.emptyMap();
+    int index = indexOf0(FLATTENED_LOCATION);
+    if (index != -1 && isStored(index)) {
+      try {
+        FastMappedZip zip = openIfPossible(getRawBuffer(index), fileOffset + getDataOffset(index),
+            root);
+        int boundariesIndex = zip != null ? zip.indexOf0(FLATTENED_BOUNDARIES_NAME) : -1;
+        if (boundariesIndex != -1) {
+          String[] lines = new String(zip.getBytes(boundariesIndex), UTF_8).split("\n");
+          if (lines.length > 0 && FLATTENED_BOUNDARIES_HEADER.equals(lines[0])) {
+            boundaries = MapUtil.newHashMap(lines.length);
+            for (int i = 1; i < lines.length; i++) {
+              int separator = lines[i].indexOf('\t');
+              if (separator != -1) {
+                boundaries.put(lines[i].substring(0, separator),
+                    lines[i].substring(separator + 1));
+              }
+            }
+            flattened = zip;
+          }
+        }
+      } catch (IOException e) {
+        // read the nested jars
+      }
+      flattenedUnreadable = flattened == null;
+    }
+    flattenedBoundaries = boundaries;
+  }
+
+  private synchronized int getStartupEntryCount(String name) {
+    if (startupEntryCounts == null) {
+      Map<String, Integer> counts = Collections.emptyMap();
+      int index = indexOf0(STARTUP_LAYOUT_LOCATION);
+      if (index != -1) {
+        try {
+          String[] lines = new String(getBytes(index), UTF_8).split("\n");
+          if (lines.length > 0 && STARTUP_LAYOUT_HEADER.equals(lines[0])) {
+            counts = MapUtil.newHashMap(lines.length);
+            for (int i = 1; i < lines.length; i++) {
+              int separator = lines[i].lastIndexOf('\t');
+              if (separator != -1) {
+                counts.put(lines[i].substring(0, separator),
+                    Integer.valueOf(lines[i].substring(separator + 1)));
+              }
+            }
+          }
+        } catch (IOException | NumberFormatException e) {
+          counts = Collections.emptyMap();
+        }
+      }
+      startupEntryCounts = counts;
+    }
+    Integer count = startupEntryCounts.get(name);
+    return count != null ? count : 0;
+  }
+
+  /**
+   * Returns the file regions holding the entries the repackager placed in startup order, as pairs
+   * of start and end offsets in the mapped file, or {@code null} if there are none.
+   */
+  long[] getStartupRegions() throws ZipException {
+    int count = Math.min(startupEntryCount, names.length);
+    if (count == 0) {
+      return null;
+    }
+    long[] regions = new long[count * 2];
+    int length = 0;
+    for (int i = 0; i < count; i++) {
+      long start = fileOffset + (long) localHeaderOffsets[i];
+      long end = fileOffset + (long) getDataOffset(i) + compressedSizes[i];
+      // the entries are contiguous unless shared with other jars when flattened
+      if (length > 0 && start >= regions[length - 2]
+          && start <= regions[length - 1] + MAX_REGION_GAP) {
+        regions[length - 1] = Math.max(regions[length - 1], end);
+      } else {
+        regions[length++] = start;
+        regions[length++] = end;
+      }
+    }
+    return Arrays.copyOf(regions, length);
+  }
+
+  /*
+   * Parses ranges of indexes like 0-3,5,7-9
+   */
+  private static int[] parseRanges(String ranges) {
+    int[] indexes = new int[16];
+    int count = 0;
+    for (String range : ranges.split(",")) {
+      int separator = range.indexOf('-');
+      int start = Integer.parseInt(separator != -1 ? range.substring(0, separator) : range);
+      int end = separator != -1 ? Integer.parseInt(range.substring(separator + 1)) : start;
+      for (int index = start; index <= end; index++) {
+        if (count == indexes.length) {
+          indexes = Arrays.copyOf(indexes, count * 2);
+        }
+        indexes[count++] = index;
+      }
+    }
+    return Arrays.copyOf(indexes, count);
+  }
+
+  /*
+   * Reads the archive in the specified buffer of the mapping owned by the
+   * root, or returns null if it is not supported by this reader
+   */
+  private static FastMappedZip openIfPossible(ByteBuffer buffer, int fileOffset,
+      FastMappedZip root) {
+    try {
+      FastMappedZip zip = new FastMappedZip(buffer, fileOffset, root);
+      return zip.isSigned() ? null : zip;
+    } catch (ZipException | IndexOutOfBoundsException e) {
+      return null;
+    }
+  }
+
+  private static int findEndHeader(ByteBuffer buffer) throws ZipException {
+    int limit = buffer.limit();
+    int minPosition = Math.max(0, limit - END_HEADER_SIZE - MAX_COMMENT_SIZE);
+    for (int position = limit - END_HEADER_SIZE; position >= minPosition; position--) {
+      if (buffer.getInt(position) == END_HEADER_SIGNATURE
+          && position + END_HEADER_SIZE + (buffer.getShort(position + 20) & 0xFFFF) == limit) {
+        return position;
+      }
+    }
+    throw new ZipException("end header not found");
+  }
+
+  /*
+   * Returns the position of the zip64 end header, found by the locator in
+   * front of the end header, or -1 if there is none
+   */
+  private static int findZip64EndHeader(ByteBuffer buffer, int end) throws ZipException {
+    int locator = end - ZIP64_LOCATOR_SIZE;
+    if (locator < ZIP64_END_HEADER_SIZE || buffer.getInt(locator) != ZIP64_LOCATOR_SIGNATURE) {
+      return -1;
+    }
+    // right in front of the locator without extensible data, where a prefix does not matter
+    int zip64End = locator - ZIP64_END_HEADER_SIZE;
+    if (buffer.getInt(zip64End) == ZIP64_END_HEADER_SIGNATURE) {
+      return zip64End;
+    }
+    long offset = buffer.getLong(locator + 8);
+    if (offset >= 0 && offset <= zip64End
+        && buffer.getInt((int) offset) == ZIP64_END_HEADER_SIGNATURE) {
+      return (int) offset;
+    }
+    throw new ZipException("zip64 end header not found");
+  }
+
+  /*
+   * Returns the position of the data of the zip64 extra field among the
+   * extra fields at the specified position
+   */
+  private static int findZip64Extra(byte[] bytes, int position, int length)
+      throws ZipException {
+    int end = Math.min(position + length, bytes.length);
+    while (position + 4 <= end) {
+      int id = getShort(bytes, position);
+      int size = getShort(bytes, position + 2);
+      if (id == ZIP64_EXTRA_ID && position + 4 + size <= end) {
+        return position + 4;
+      }
+      position += 4 + size;
+    }
+    throw new ZipException("zip64 extra field not found");
+  }
+
+  private static int getShort(byte[] bytes, int position) {
+    return (bytes[position] & 0xFF) | (bytes[position + 1] & 0xFF) << 8;
+  }
+
+  private static int getInt(byte[] bytes, int position) {
+    return (bytes[position] & 0xFF) | (bytes[position + 1] & 0xFF) << 8
+        | (bytes[position + 2] & 0xFF) << 16 | (bytes[position + 3] & 0xFF) << 24;
+  }
+
+  private static long getLong(byte[] bytes, int position) throws ZipException {
+    if (position + 8 > bytes.length) {
+      throw new ZipException("invalid zip64 extra field");
+    }
+    return (getInt(bytes, position) & 0xFFFFFFFFL) | (long) getInt(bytes, position + 4) << 32;
+  }
+
+  private static String decodeName(byte[] bytes, int position, int length) {
+    for (int i = position; i < position + length; i++) {
+      if (bytes[i] < 0) {
+        return new String(bytes, position, length, UTF_8);
+      }
+    }
+    return new String(bytes, position, length, ISO_8859_1);
+  }
+
+  /*
+   * The signatures are verified by JarFile only
+   */
+  private boolean isSigned() {
+    for (String name : names) {
+      if (FastJarLoader.isSignatureFile(name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  int size() {
+    return names.length;
+  }
+
+  /**
+   * Returns the names of all entries in the order of the central directory.
+   */
+  List<String> getNames() {
+    return new AbstractList<String>() {
+      @Override
+      public String get(int index) {
+        return names[index];
+      }
+
+      @Override
+      public int size() {
+        return names.length;
+      }
+    };
+  }
+
+  /**
+   * Returns the index of the entry of the specified name, or of the directory entry of that name
+   * like ZipFile#getEntry, or -1 if not found.
+   */
+  int indexOf(String name) {
+    int index = indexOf0(name);
+    if (index == -1 && !name.isEmpty() && name.charAt(name.length() - 1) != '/') {
+      index = indexOf0(name + '/');
+    }
+    return index;
+  }
+
+  private int indexOf0(String name) {
+    int slot = name.hashCode() & (table.length - 1);
+    int value;
+    while ((value = table[slot]) != 0) {
+      if (names[value - 1].equals(name)) {
+        return value - 1;
+      }
+      slot = (slot + 1) & (table.length - 1);
+    }
+    return -1;
+  }
+
+  String getName(int index) {
+    return names[index];
+  }
+
+  int getSize(int index) {
+    return sizes[index];
+  }
+
+  boolean isStored(int index) {
+    return methods[index] == STORED;
+  }
+
+  private int getDataOffset(int index) throws ZipException {
+    if (root.closed) {
+      throw new ZipException("zip file closed");
+    }
+    int dataOffset = dataOffsets[index];
+    if (dataOffset == 0) {
+      int localHeaderOffset = localHeaderOffsets[index];
+      if (buffer.getInt(localHeaderOffset) != LOCAL_HEADER_SIGNATURE) {
+        throw new ZipException("invalid local header: " + names[index]);
+      }
+      dataOffset = localHeaderOffset + LOCAL_HEADER_SIZE
+          + (buffer.getShort(localHeaderOffset + 26) & 0xFFFF)
+          + (buffer.getShort(localHeaderOffset + 28) & 0xFFFF);
+      dataOffsets[index] = dataOffset;
+    }
+    return dataOffset;
+  }
+
+  /**
+   * Returns a read only slice of the raw data of the entry, i.e. its content if stored.
+   */
+  ByteBuffer getRawBuffer(int index) throws ZipException {
+    int dataOffset = getDataOffset(index);
+    ByteBuffer duplicate = buffer.duplicate();
+    ((Buffer) duplicate).position(dataOffset);
+    ((Buffer) duplicate).limit(dataOffset + compressedSizes[index]);
+    return duplicate.slice().asReadOnlyBuffer();
+  }
+
+  /**
+   * Returns the content of the entry.
+   */
+  byte[] getBytes(int index) throws IOException {
+    ByteBuffer raw = getRawBuffer(index);
+    byte[] bytes = new byte[sizes[index]];
+    if (isStored(index)) {
+      raw.get(bytes);
+      return bytes;
+    }
+    // an extra dummy byte is required by the inflater without zlib header
+    int inputLength = raw.remaining() + 1;
+    byte[] input = getScratch(inputLength);
+    raw.get(input, 0, inputLength - 1);
+    input[inputLength - 1] = 0;
+    Inflater inflater = INFLATER.get();
+    try {
+      inflater.setInput(input, 0, inputLength);
+      int length = 0;
+      while (length < bytes.length) {
+        int n = inflater.inflate(bytes, length, bytes.length - length);
+        if (n == 0) {
+          if (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()) {
+            break;
+          }
+        }
+        length += n;
+      }
+      if (length != bytes.length) {
+        throw new ZipException("invalid entry size: " + names[index]);
+      }
+    } catch (DataFormatException e) {
+      throw new ZipException(e.getMessage());
+    } finally {
+      inflater.reset();
+    }
+    return bytes;
+  }
+
+  /*
+   * Returns the scratch array of the current thread if it is large enough,
+   * larger requests get an array of their own
+   */
+  private static byte[] getScratch(int length) {
+    if (length > MAX_SCRATCH_SIZE) {
+      return new byte[length];
+    }
+    byte[] scratch = SCRATCH.get();
+    if (scratch.length < length) {
+      scratch = new byte[Math.min(MAX_SCRATCH_SIZE, Integer.highestOneBit(length - 1) << 1)];
+      SCRATCH.set(scratch);
+    }
+    return scratch;
+  }
+
+  /**
+   * Returns an input stream of the content of the entry, a stored entry is backed by its slice of
+   * the mapping.
+   */
+  InputStream getInputStream(int index) throws IOException {
+    if (isStored(index)) {
+      return new ByteBufferInputStream(getRawBuffer(index), root);
+    }
+    return new ByteArrayInputStream(getBytes(index));
+  }
+
+  /**
+   * Returns whether this nested jar is read by itself although the repackager flattened it, e.g.
+   * as it changed since or the flattened libraries can not be read.
+   */
+  boolean isFlattenedFallback() {
+    return flattenedFallback;
+  }
+
+  Manifest getManifest() throws IOException {
+    if (manifestZip != this) {
+      return manifestZip.getManifest();
+    }
+    if (!manifestRead) {
+      int index = indexOf0(JarFile.MANIFEST_NAME);
+      manifest = index != -1 ? new Manifest(getInputStream(index)) : null;
+      manifestRead = true;
+    }
+    return manifest;
+  }
+
+  /**
+   * Closes this archive, once per archive opened. A nested archive releases its reference to the
+   * shared mapping of the fat jar, which is dropped once the last one is closed. The entries of a
+   * released mapping can not be read any more, the mapping itself is unmapped by the garbage
+   * collector like that of ZipFile, as the streams and slices handed out may still be in use.
+   */
+  void close() {
+    FastMappedZip owner = root;
+    if (owner.sharedKey != null) {
+      synchronized (SHARED_ZIPS) {
+        if (--owner.references > 0) {
+          return;
+        }
+        SHARED_ZIPS.remove(owner.sharedKey);
+      }
+    } else if (owner != this) {
+      return;
+    }
+    owner.closed = true;
+  }
+
+  /*
+   * Input stream of a buffer, a stored class is defined from the buffer by
+   * the resource itself without copying
+   */
+  private static class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer content;
+    /* The archive which owns the mapping, not read once it is closed */
+    private final FastMappedZip root;
+
+    private ByteBufferInputStream(ByteBuffer buffer, FastMappedZip root) {
+      this.content = buffer.duplicate();
+      this.root = root;
+    }
+
+    private void ensureOpen() throws IOException {
+      if (root.closed) {
+        throw new IOException("zip file closed");
+      }
+    }
+
+    @Override
+    public int read() throws IOException {
+      ensureOpen();
+      return content.hasRemaining() ? content.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      ensureOpen();
+      if (len == 0) {
+        return 0;
+      }
+      if (!content.hasRemaining()) {
+        return -1;
+      }
+      len = Math.min(len, content.remaining());
+      content.get(b, off, len);
+      return len;
+    }
+
+    @Override
+    public long skip(long n) {
+      int skipped = (int) Math.max(0, Math.min(n, content.remaining()));
+      ((Buffer) content).position(content.position() + skipped);
+      return skipped;
+    }
+
+    @Override
+    public int available() {
+      return content.remaining();
+    }
+  }
+
+}
@@ -0,0 +1,139 @@
+package cn.ares.turbo.loader.fast;
+
+import cn.ares.turbo.loader.util.MapUtil;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Trie of the packages of all loaders which can enumerate their entries, each node holds the
+ * entries of its package per loader. Listing the entries under a prefix, e.g. for classpath*:
+ * pattern scanning, walks the matching subtree only and never touches the archives again.
+ */
+class FastPackageTrie {
+
+  private final Node root = new Node();
+  /* The loaders the trie was built from, in class path order */
+  private final List<FastLoader> loaders;
+
+  FastPackageTrie(List<FastLoader> loaders) {
+    this.loaders = loaders;
+    for (FastLoader loader : loaders) {
+      Collection<String> entryNames = loader.getEntryNames();
+      if (entryNames == null) {
+        continue;
+      }
+      for (String name : entryNames) {
+        Node node = root;
+        int start = 0;
+        int end;
+        // the package of a directory entry is the directory itself
+        while ((end = name.indexOf('/', start)) != -1) {
+          node = node.child(name.substring(start, end));
+          start = end + 1;
+        }
+        node.addEntry(loader, name);
+      }
+    }
+  }
+
+  List<FastLoader> getLoaders() {
+    return loaders;
+  }
+
+  /**
+   * Returns the names of the entries starting with the specified prefix per loader.
+   */
+  Map<FastLoader, List<String>> find(String prefix) {
+    Map<FastLoader, List<String>> result = MapUtil.newHashMap();
+    Node node = root;
+    int start = 0;
+    int end;
+    while ((end = prefix.indexOf('/', start)) != -1) {
+      node = node.children != null ? node.children.get(prefix.substring(start, end)) : null;
+      if (node == null) {
+        return result;
+      }
+      start = end + 1;
+    }
+    String rest = prefix.substring(start);
+    if (rest.isEmpty()) {
+      node.collect(result);
+      return result;
+    }
+    // the last segment is partial
+    if (node.entries != null) {
+      for (Entry<FastLoader, List<String>> entry : node.entries.entrySet()) {
+        for (String name : entry.getValue()) {
+          if (name.startsWith(prefix)) {
+            add(result, entry.getKey(), name);
+          }
+        }
+      }
+    }
+    if (node.children != null) {
+      for (Entry<String, Node> entry : node.children.entrySet()) {
+        if (entry.getKey().startsWith(rest)) {
+          entry.getValue().collect(result);
+        }
+      }
+    }
+    return result;
+  }
+
+  private static void add(Map<FastLoader, List<String>> result, FastLoader loader, String name) {
+    List<String> names = result.get(loader);
+    if (names == null) {
+      names = new ArrayList<>();
+      result.put(loader, names);
+    }
+    names.add(name);
+  }
+
+  private static class Node {
+
+    private Map<String, Node> children;
+    /* The entries of this package per loader */
+    private Map<FastLoader, List<String>> entries;
+
+    private Node child(String segment) {
+      if (children == null) {
+        children = MapUtil.newHashMap();
+      }
+      Node node = children.get(segment);
+      if (node == null) {
+        node = new Node();
+        children.put(segment, node);
+      }
+      return node;
+    }
+
+    private void addEntry(FastLoader loader, String name) {
+      if (entries == null) {
+        entries = MapUtil.newHashMap(1);
+      }
+      add(entries, loader, name);
+    }
+
+    private void collect(Map<FastLoader, List<String>> result) {
+      if (entries != null) {
+        for (Entry<FastLoader, List<String>> entry : entries.entrySet()) {
+          List<String> names = result.get(entry.getKey());
+          if (names == null) {
+            result.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+          } else {
+            names.addAll(entry.getValue());
+          }
+        }
+      }
+      if (children != null) {
+        for (Node child : children.values()) {
+          child.collect(result);
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,117 @@
+package cn.ares.turbo.loader.fast;
+
+import cn.ares.turbo.loader.util.NameThreadFactory;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Defines the classes of a startup class list ahead of time on worker threads, without
+ * initializing them. The superclass and interfaces of a class are loaded by the virtual machine
+ * while defining it, and as the class loader is parallel capable a class requested by several
+ * threads is defined once under its own lock, so the list needs no particular order. A class which
+ * fails to load is skipped, the thread which really requests it gets the same error.
+ */
+class FastPredefiner {
+
+  private static final String CLASS_SUFFIX = ".class";
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static final ThreadFactory THREAD_FACTORY = new NameThreadFactory()
+      .setNameFormat("ares-turbo-predefine-%d").setDaemon(true).build();
+
+  private final ClassLoader classLoader;
+  private final List<String> classNames;
+  private final FastLoaderStatistics statistics;
+  private final int threads;
+  private final AtomicInteger index = new AtomicInteger();
+  private final AtomicBoolean started = new AtomicBoolean();
+  private volatile boolean stopped;
+
+  FastPredefiner(ClassLoader classLoader, List<String> classNames,
+      FastLoaderStatistics statistics, int threads) {
+    this.classLoader = classLoader;
+    this.classNames = classNames;
+    this.statistics = statistics;
+    this.threads = threads;
+  }
+
+  /**
+   * Returns the class names of the specified entry names, e.g. those of a profile.
+   */
+  static List<String> toClassNames(List<String> entryNames) {
+    List<String> classNames = new ArrayList<>();
+    for (String entryName : entryNames) {
+      if (entryName.endsWith(CLASS_SUFFIX)) {
+        classNames.add(entryName.substring(0, entryName.length() - CLASS_SUFFIX.length())
+            .replace('/', '.'));
+      }
+    }
+    return classNames;
+  }
+
+  /**
+   * Reads a class list with one class name per line, lines starting with # are ignored.
+   */
+  static List<String> readClassList(File file) throws IOException {
+    List<String> classNames = new ArrayList<>();
+    BufferedReader reader = new BufferedReader(
+        new InputStreamReader(new FileInputStream(file), UTF_8));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        line = line.trim();
+        if (line.isEmpty() || line.charAt(0) == '#') {
+          continue;
+        }
+        if (line.endsWith(CLASS_SUFFIX)) {
+          line = line.substring(0, line.length() - CLASS_SUFFIX.length()).replace('/', '.');
+        }
+        classNames.add(line);
+      }
+    } finally {
+      reader.close();
+    }
+    return classNames;
+  }
+
+  /**
+   * Starts the worker threads, only the first call has an effect. It is called once the class
+   * loader is fully constructed, as the workers load classes through it.
+   */
+  void start() {
+    if (started.get() || !started.compareAndSet(false, true)) {
+      return;
+    }
+    Runnable runnable = new Runnable() {
+      @Override
+      public void run() {
+        int i;
+        while (!stopped && (i = index.getAndIncrement()) < classNames.size()) {
+          try {
+            Class.forName(classNames.get(i), false, classLoader);
+            statistics.recordPredefinition();
+          } catch (Throwable ignore) {
+            // loaded again when requested
+          }
+        }
+      }
+    };
+    for (int i = 0; i < threads; i++) {
+      THREAD_FACTORY.newThread(runnable).start();
+    }
+  }
+
+  void stop() {
+    stopped = true;
+  }
+
+}
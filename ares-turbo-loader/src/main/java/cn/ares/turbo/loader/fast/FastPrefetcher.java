@@ -0,0 +1,189 @@
+package cn.ares.turbo.loader.fast;
+
+import cn.ares.turbo.loader.util.MapUtil;
+import cn.ares.turbo.loader.util.NameThreadFactory;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.security.CodeSigner;
+import java.security.cert.Certificate;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.jar.Manifest;
+
+/**
+ * Replays a recorded profile, background threads read the entries in the recorded order into a
+ * staging area ahead of the threads which request them. The profile is only a hint, an entry which
+ * no longer exists is skipped and an entry not staged yet is loaded as usual.
+ */
+class FastPrefetcher {
+
+  private static final ThreadFactory THREAD_FACTORY = new NameThreadFactory()
+      .setNameFormat("ares-turbo-prefetch-%d").setDaemon(true).build();
+
+  private final FastURLClassPath classPath;
+  private final List<String> names;
+  private final long maxStagedBytes;
+  private final FastLoaderStatistics statistics;
+
+  private final AtomicInteger index = new AtomicInteger();
+  private final ConcurrentMap<String, FastResource> staged = MapUtil.newConcurrentMap(4096);
+  private final AtomicLong stagedBytes = new AtomicLong();
+  private final Object stagedLock = new Object();
+  private volatile boolean stopped;
+
+  FastPrefetcher(FastURLClassPath classPath, List<String> names, long maxStagedBytes,
+      FastLoaderStatistics statistics) {
+    this.classPath = classPath;
+    this.names = names;
+    this.maxStagedBytes = maxStagedBytes;
+    this.statistics = statistics;
+  }
+
+  void start() {
+    int threads = Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() - 1));
+    Runnable runnable = new Runnable() {
+      @Override
+      public void run() {
+        int i;
+        while (!stopped && (i = index.getAndIncrement()) < names.size()) {
+          try {
+            awaitCapacity();
+            prefetch(names.get(i));
+          } catch (InterruptedException e) {
+            return;
+          } catch (Throwable ignore) {
+            // a stale entry, it is loaded as usual if requested
+          }
+        }
+      }
+    };
+    for (int i = 0; i < threads; i++) {
+      THREAD_FACTORY.newThread(runnable).start();
+    }
+  }
+
+  private void awaitCapacity() throws InterruptedException {
+    synchronized (stagedLock) {
+      while (!stopped && stagedBytes.get() > maxStagedBytes) {
+        stagedLock.wait(10);
+      }
+    }
+  }
+
+  private void prefetch(String name) throws IOException {
+    FastResource resource = classPath.getResource(name, false, false);
+    if (resource == null || stopped) {
+      return;
+    }
+    byte[] bytes = resource.getBytes();
+    if (staged.putIfAbsent(name, new StagedResource(resource, bytes)) == null) {
+      stagedBytes.addAndGet(bytes.length);
+      statistics.recordPrefetch();
+    }
+  }
+
+  /**
+   * Removes and returns the staged resource of the specified name, or returns {@code null} if it is
+   * not staged.
+   */
+  FastResource take(String name) {
+    FastResource resource = staged.remove(name);
+    if (resource != null) {
+      stagedBytes.addAndGet(-((StagedResource) resource).bytes.length);
+      synchronized (stagedLock) {
+        stagedLock.notifyAll();
+      }
+      statistics.recordPrefetchHit();
+    }
+    return resource;
+  }
+
+  /**
+   * Stops prefetching and releases the staged resources.
+   */
+  void stop() {
+    stopped = true;
+    staged.clear();
+    stagedBytes.set(0);
+    synchronized (stagedLock) {
+      stagedLock.notifyAll();
+    }
+  }
+
+  /*
+   * A resource whose bytes are already read, the other attributes are
+   * taken from the original resource.
+   */
+  private static class StagedResource extends FastResource {
+
+    private final FastResource resource;
+    private final byte[] bytes;
+
+    private StagedResource(FastResource resource, byte[] bytes) {
+      this.resource = resource;
+      this.bytes = bytes;
+    }
+
+    @Override
+    public String getName() {
+      return resource.getName();
+    }
+
+    @Override
+    public URL getURL() {
+      return resource.getURL();
+    }
+
+    @Override
+    public URL getCodeSourceURL() {
+      return resource.getCodeSourceURL();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+      return new ByteArrayInputStream(bytes);
+    }
+
+    @Override
+    public int getContentLength() {
+      return bytes.length;
+    }
+
+    @Override
+    public byte[] getBytes() {
+      return bytes;
+    }
+
+    @Override
+    public ByteBuffer getByteBuffer() {
+      return null;
+    }
+
+    @Override
+    FastLoader getLoader() {
+      return resource.getLoader();
+    }
+
+    @Override
+    public Manifest getManifest() throws IOException {
+      return resource.getManifest();
+    }
+
+    @Override
+    public Certificate[] getCertificates() {
+      return resource.getCertificates();
+    }
+
+    @Override
+    public CodeSigner[] getCodeSigners() {
+      return resource.getCodeSigners();
+    }
+  }
+
+}
@@ -0,0 +1,76 @@
+package cn.ares.turbo.loader.fast;
+
+import cn.ares.turbo.loader.util.NameThreadFactory;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads the startup regions of archives with large sequential reads on a background thread, ahead
+ * of the threads which load the classes there. The data lands in the page cache the mapping of the
+ * archive is served from, so the random reads of class loading no longer wait for the disk.
+ */
+class FastReadAhead {
+
+  private static final int CHUNK_SIZE = 1024 * 1024;
+
+  private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(1, 1, 10,
+      TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new NameThreadFactory()
+      .setNameFormat("ares-turbo-read-ahead-%d").setDaemon(true).build());
+
+  static {
+    EXECUTOR.allowCoreThreadTimeOut(true);
+  }
+
+  /* Only used by the single thread of the executor */
+  private static ByteBuffer chunk;
+
+  /**
+   * Reads the specified regions of the file in the background, the regions are pairs of start and
+   * end offsets.
+   */
+  static void submit(final File file, final long[] regions) {
+    EXECUTOR.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          read(file, regions);
+        } catch (IOException ignore) {
+          // the entries are read on demand
+        }
+      }
+    });
+  }
+
+  private static void read(File file, long[] regions) throws IOException {
+    if (chunk == null) {
+      chunk = ByteBuffer.allocateDirect(CHUNK_SIZE);
+    }
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = randomAccessFile.getChannel();
+      for (int i = 0; i < regions.length; i += 2) {
+        long position = regions[i];
+        long end = regions[i + 1];
+        while (position < end) {
+          ((Buffer) chunk).clear();
+          ((Buffer) chunk).limit((int) Math.min(CHUNK_SIZE, end - position));
+          int n = channel.read(chunk, position);
+          if (n <= 0) {
+            break;
+          }
+          position += n;
+        }
+      }
+    } finally {
+      randomAccessFile.close();
+    }
+  }
+
+}
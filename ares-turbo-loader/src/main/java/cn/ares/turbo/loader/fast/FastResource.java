@@ -9,8 +9,6 @@ import java.nio.ByteBuffer;
 import java.security.CodeSigner;
 import java.security.cert.Certificate;
 import java.util.Arrays;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 import java.util.jar.Manifest;
 import sun.nio.ByteBuffered;
 
@@ -19,8 +17,6 @@ import sun.nio.ByteBuffered;
  */
 public abstract class FastResource {
 
-  private final Lock lock = new ReentrantLock();
-
   /**
    * Returns the name of the Resource.
    */
@@ -46,23 +42,26 @@ public abstract class FastResource {
    */
   public abstract int getContentLength() throws IOException;
 
+  private static final int INITIAL_BUFFER_SIZE = 1024;
+  private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
   private InputStream cachedInputStream;
 
-  /* Cache result in case getBytes is called after getByteBuffer. */
-  private InputStream cachedInputStream() throws IOException {
-    lock.lock();
-    try {
-      if (cachedInputStream == null) {
-        cachedInputStream = getInputStream();
-      }
-      return cachedInputStream;
-    } finally {
-      lock.unlock();
+  /*
+   * Cache result in case getBytes is called after getByteBuffer. A resource
+   * is nearly always read by a single thread, so the uncontended monitor is
+   * cheaper than a lock allocated for every resource.
+   */
+  private synchronized InputStream cachedInputStream() throws IOException {
+    if (cachedInputStream == null) {
+      cachedInputStream = getInputStream();
     }
+    return cachedInputStream;
   }
 
   /**
-   * Returns the Resource data as an array of bytes.
+   * Returns the Resource data as an array of bytes. If the length is known the data is read into
+   * one array of that size, otherwise the array grows by doubling.
    */
   public byte[] getBytes() throws IOException {
     byte[] bytes;
@@ -88,41 +87,34 @@ public abstract class FastResource {
     }
 
     try {
-      bytes = new byte[0];
-      if (len == -1) {
-        len = Integer.MAX_VALUE;
-      }
+      bytes = new byte[len != -1 ? len : INITIAL_BUFFER_SIZE];
       int pos = 0;
-      while (pos < len) {
-        int bytesToRead;
+      while (len == -1 || pos < len) {
         // Only expand when there's no room
-        if (pos >= bytes.length) {
-          bytesToRead = Math.min(len - pos, bytes.length + 1024);
-          if (bytes.length < pos + bytesToRead) {
-            bytes = Arrays.copyOf(bytes, pos + bytesToRead);
+        if (pos == bytes.length) {
+          if (bytes.length == MAX_ARRAY_SIZE) {
+            throw new OutOfMemoryError("Required array size too large");
           }
-        } else {
-          bytesToRead = bytes.length - pos;
+          bytes = Arrays.copyOf(bytes, (int) Math.min(MAX_ARRAY_SIZE, bytes.length * 2L));
         }
         int cc = 0;
         try {
-          cc = inputStream.read(bytes, pos, bytesToRead);
+          cc = inputStream.read(bytes, pos, bytes.length - pos);
         } catch (InterruptedIOException exception) {
           Thread.interrupted();
           isInterrupted = true;
         }
         if (cc < 0) {
-          if (len != Integer.MAX_VALUE) {
+          if (len != -1) {
             throw new EOFException("Detect premature EOF");
-          } else {
-            if (bytes.length != pos) {
-              bytes = Arrays.copyOf(bytes, pos);
-            }
-            break;
           }
+          break;
         }
         pos += cc;
       }
+      if (bytes.length != pos) {
+        bytes = Arrays.copyOf(bytes, pos);
+      }
     } finally {
       try {
         inputStream.close();
@@ -140,7 +132,9 @@ public abstract class FastResource {
 
   /**
    * Returns the Resource data as a ByteBuffer, but only if the input stream was implemented on top
-   * of a ByteBuffer. Return <tt>null</tt> otherwise.
+   * of a ByteBuffer. Return <tt>null</tt> otherwise. Resources which can expose their data without
+   * copying it onto the heap, e.g. stored entries of a mapped jar, override this method. A pooled
+   * buffer is given back by {@link #releaseByteBuffer()}.
    */
   public ByteBuffer getByteBuffer() throws IOException {
     InputStream cachedInputStream = cachedInputStream();
@@ -150,6 +144,21 @@ public abstract class FastResource {
     return null;
   }
 
+  /**
+   * Releases the buffer returned by {@link #getByteBuffer()} once it is consumed, the buffer must
+   * not be used afterwards.
+   */
+  public void releaseByteBuffer() {
+  }
+
+  /*
+   * Returns the loader of the resource, which caches the state shared by
+   * its classes, or null if unknown.
+   */
+  FastLoader getLoader() {
+    return null;
+  }
+
   /**
    * Returns the Manifest for the Resource, or null if none.
    */
@@ -0,0 +1,81 @@
+package cn.ares.turbo.loader.fast;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decides which resources other than classes are cached during the startup, the resources read
+ * repeatedly such as {@code META-INF/spring.factories}. A pattern matches the whole resource name,
+ * where {@code *} stands for any characters including slashes, e.g. {@code *.properties} or
+ * {@code META-INF/services/*}.
+ */
+class FastResourcePolicy {
+
+  /* The parts of each pattern between the wildcards */
+  private final List<String[]> patterns;
+  private final int maxSize;
+
+  private FastResourcePolicy(List<String[]> patterns, int maxSize) {
+    this.patterns = patterns;
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Parses the comma separated patterns, returns null if there is none.
+   *
+   * @param maxSize the maximum size of a cached resource
+   */
+  static FastResourcePolicy parse(String patterns, int maxSize) {
+    List<String[]> result = new ArrayList<>();
+    for (String pattern : patterns.split(",")) {
+      pattern = pattern.trim();
+      if (!pattern.isEmpty()) {
+        result.add(pattern.split("\\*", -1));
+      }
+    }
+    return result.isEmpty() || maxSize <= 0 ? null : new FastResourcePolicy(result, maxSize);
+  }
+
+  boolean matches(String name) {
+    for (String[] pattern : patterns) {
+      if (matches(pattern, name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /*
+   * The first part is a prefix and the last part a suffix of the name, the
+   * parts in between follow in order
+   */
+  private static boolean matches(String[] parts, String name) {
+    String first = parts[0];
+    if (parts.length == 1) {
+      return name.equals(first);
+    }
+    String last = parts[parts.length - 1];
+    if (!name.startsWith(first) || !name.endsWith(last)
+        || name.length() < first.length() + last.length()) {
+      return false;
+    }
+    int from = first.length();
+    int to = name.length() - last.length();
+    for (int i = 1; i < parts.length - 1; i++) {
+      int index = name.indexOf(parts[i], from);
+      if (index < 0 || index + parts[i].length() > to) {
+        return false;
+      }
+      from = index + parts[i].length();
+    }
+    return true;
+  }
+
+  /**
+   * Returns the maximum size of a cached resource, larger resources are read as usual.
+   */
+  int getMaxSize() {
+    return maxSize;
+  }
+
+}
@@ -1,21 +1,29 @@
 package cn.ares.turbo.loader.fast;
 
+import cn.ares.turbo.loader.util.BytesCache;
+import cn.ares.turbo.loader.util.BytesClockCache;
 import cn.ares.turbo.loader.util.BytesLruCache;
+import cn.ares.turbo.loader.util.BytesSlabCache;
 import cn.ares.turbo.loader.util.IoUtil;
+import cn.ares.turbo.loader.util.MapUtil;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.net.URL;
 import java.security.CodeSigner;
 import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.jar.Attributes;
 import java.util.jar.Attributes.Name;
@@ -31,8 +39,39 @@ public class FastURLClassLoader extends LaunchedURLClassLoader implements Closea
   private static final String ENABLE_KEY = "ares.turbo.classloader.enable";
   private static final String MAX_CACHE_SIZE_KEY = "ares.turbo.classloader.max-cache-size";
   private static final String DEFAULT_MAX_CACHE_SIZE = Integer.toString(64 * 1024 * 1024);
+  /*
+   * Where the cached bytes are stored, heap (default) or direct, the latter
+   * keeps them in slabs off the heap which are freed at once on expiry
+   */
+  private static final String CACHE_STORAGE_KEY = "ares.turbo.classloader.cache-storage";
+  /*
+   * How the heap cache evicts, clock (default) reads without locking, lru
+   * is cheaper when a single thread evicts constantly, e.g. a small cache
+   */
+  private static final String CACHE_EVICTION_KEY = "ares.turbo.classloader.cache-eviction";
   private static final String CACHE_EXPIRE_SECONDS_KEY = "ares.turbo.classloader.cache-expire-seconds";
   private static final String DEFAULT_CACHE_EXPIRE_SECONDS = Integer.toString(5 * 60);
+  /*
+   * The cache expires once not accessed for this long after its first
+   * access, generous by default, so that a startup waiting on I/O meanwhile
+   * keeps its cache while a short one releases it well before the lifetime
+   */
+  private static final String CACHE_IDLE_SECONDS_KEY = "ares.turbo.classloader.cache-idle-seconds";
+  private static final String DEFAULT_CACHE_IDLE_SECONDS = Integer.toString(60);
+  /*
+   * The resources other than classes which are cached as well, comma
+   * separated patterns where * stands for any characters, and their
+   * maximum size
+   */
+  private static final String CACHE_RESOURCES_KEY = "ares.turbo.classloader.cache-resources";
+  private static final String DEFAULT_CACHE_RESOURCES = "META-INF/spring.factories,"
+      + "META-INF/spring.components,META-INF/services/*,*.properties,*.xml";
+  private static final String CACHE_RESOURCE_MAX_SIZE_KEY =
+      "ares.turbo.classloader.cache-resource-max-size";
+  private static final String DEFAULT_CACHE_RESOURCE_MAX_SIZE = Integer.toString(64 * 1024);
+  private static final String PROFILE_FILE_KEY = "ares.turbo.classloader.profile-file";
+  private static final String PREDEFINE_THREADS_KEY = "ares.turbo.classloader.predefine-threads";
+  private static final String CLASS_LIST_FILE_KEY = "ares.turbo.classloader.class-list-file";
   private static final String CLASS_SUFFIX = ".class";
 
   private static final URL[] EMPTY_URLS = new URL[0];
@@ -44,7 +83,26 @@ public class FastURLClassLoader extends LaunchedURLClassLoader implements Closea
   /* The search path for classes and resources */
   private final FastURLClassPath fastURLClassPath;
 
-  private final AtomicReference<BytesLruCache> cacheHolder = new AtomicReference<>();
+  private final AtomicReference<BytesCache> cacheHolder = new AtomicReference<>();
+
+  /* The resources other than classes which are cached, null if none */
+  private final FastResourcePolicy resourcePolicy;
+
+  /* The URLs found by findResources for the cached resources until the cache expires */
+  private final AtomicReference<ConcurrentMap<String, List<URL>>> resourcesHolder =
+      new AtomicReference<>();
+
+  /* Expires the cache once the startup is over, null if disabled */
+  private final FastCacheExpiry cacheExpiry;
+
+  /* Records the requested entries if the profile is missing or stale, may be null */
+  private final FastLoadProfile profile;
+
+  /* Replays the recorded profile, may be null */
+  private final FastPrefetcher prefetcher;
+
+  /* Defines the classes of the class list ahead of time, may be null */
+  private final FastPredefiner predefiner;
 
   public FastURLClassLoader(URL[] urls, ClassLoader parent) {
     this(urls, parent, ENABLE);
@@ -55,24 +113,112 @@ public class FastURLClassLoader extends LaunchedURLClassLoader implements Closea
 //    }
 
   public FastURLClassLoader(URL[] urls, ClassLoader parent, boolean enable) {
+    this(urls, parent, enable, null, null);
+  }
+
+  /**
+   * @param indexRoot     the root of the archive which contains the precomputed index
+   * @param indexLocation the location of the index file relative to the root
+   */
+  public FastURLClassLoader(URL[] urls, ClassLoader parent, URL indexRoot, String indexLocation) {
+    this(urls, parent, ENABLE, indexRoot, indexLocation);
+  }
+
+  public FastURLClassLoader(URL[] urls, ClassLoader parent, boolean enable, URL indexRoot,
+      String indexLocation) {
     super(enable ? EMPTY_URLS : urls, parent);
     this.enable = enable;
-    this.fastURLClassPath = enable ? new FastURLClassPath(urls) : null;
+    this.fastURLClassPath = enable ? new FastURLClassPath(urls, indexRoot, indexLocation) : null;
+    FastLoadProfile profile = null;
+    FastPrefetcher prefetcher = null;
+    FastCacheExpiry cacheExpiry = null;
+    FastResourcePolicy resourcePolicy = null;
+    List<String> classNames = null;
     if (enable) {
       // default size is 64MB
       String maxCacheSize = System.getProperty(MAX_CACHE_SIZE_KEY, DEFAULT_MAX_CACHE_SIZE);
-      this.cacheHolder.set(new BytesLruCache(Integer.parseInt(maxCacheSize)));
-      // default cache expire seconds is 5 * 60 seconds
+      this.cacheHolder.set(createCache(Integer.parseInt(maxCacheSize)));
+      resourcePolicy = FastResourcePolicy.parse(
+          System.getProperty(CACHE_RESOURCES_KEY, DEFAULT_CACHE_RESOURCES),
+          Integer.parseInt(System.getProperty(CACHE_RESOURCE_MAX_SIZE_KEY,
+              DEFAULT_CACHE_RESOURCE_MAX_SIZE)));
+      // the URLs are checked once per caller without a security manager only
+      if (resourcePolicy != null && !hasSecurityManager()) {
+        this.resourcesHolder.set(MapUtil.<String, List<URL>>newConcurrentMap());
+      }
+      String profileFile = System.getProperty(PROFILE_FILE_KEY);
+      if (profileFile != null && !profileFile.isEmpty()) {
+        File file = new File(profileFile);
+        long fingerprint = fastURLClassPath.getFingerprint();
+        List<String> names = FastLoadProfile.read(file, fingerprint);
+        if (names != null) {
+          // the staged bytes are bounded like the cache
+          prefetcher = new FastPrefetcher(fastURLClassPath, names, Integer.parseInt(maxCacheSize),
+              fastURLClassPath.getStatistics());
+          prefetcher.start();
+          classNames = FastPredefiner.toClassNames(names);
+        } else {
+          profile = new FastLoadProfile(file, fingerprint);
+        }
+      }
+      String classListFile = System.getProperty(CLASS_LIST_FILE_KEY);
+      if (classListFile != null && !classListFile.isEmpty()) {
+        try {
+          classNames = FastPredefiner.readClassList(new File(classListFile));
+        } catch (IOException ignore) {
+          // Silently ignore, the classes are loaded on demand
+        }
+      }
+      // default cache expire seconds is 5 * 60 seconds, the maximum lifetime of the cache
       String cacheExpireSeconds = System.getProperty(CACHE_EXPIRE_SECONDS_KEY,
           DEFAULT_CACHE_EXPIRE_SECONDS);
-      Timer timer = new Timer();
-      TimerTask timerTask = new TimerTask() {
+      String cacheIdleSeconds = System.getProperty(CACHE_IDLE_SECONDS_KEY,
+          DEFAULT_CACHE_IDLE_SECONDS);
+      cacheExpiry = new FastCacheExpiry(cacheHolder, Integer.parseInt(cacheExpireSeconds),
+          Integer.parseInt(cacheIdleSeconds), new Runnable() {
         @Override
         public void run() {
-          cacheHolder.set(null);
+          resourcesHolder.set(null);
+          // the startup is regarded as finished when the cache expires
+          finishProfile();
         }
-      };
-      timer.schedule(timerTask, Integer.parseInt(cacheExpireSeconds) * 1_000L);
+      });
+    }
+    this.cacheExpiry = cacheExpiry;
+    this.resourcePolicy = resourcePolicy;
+    this.profile = profile;
+    this.prefetcher = prefetcher;
+    // disabled by default, capped by the number of processors
+    int predefineThreads = Math.min(Integer.getInteger(PREDEFINE_THREADS_KEY, 0),
+        Runtime.getRuntime().availableProcessors());
+    if (classNames != null && !classNames.isEmpty() && predefineThreads > 0) {
+      // started by the first class requested, the workers must not see a partly built loader
+      this.predefiner = new FastPredefiner(this, classNames, fastURLClassPath.getStatistics(),
+          predefineThreads);
+    } else {
+      this.predefiner = null;
+    }
+    if (cacheExpiry != null) {
+      cacheExpiry.start();
+    }
+  }
+
+  /*
+   * Writes the recorded profile and stops replaying
+   */
+  private void finishProfile() {
+    if (predefiner != null) {
+      predefiner.stop();
+    }
+    if (prefetcher != null) {
+      prefetcher.stop();
+    }
+    if (profile != null) {
+      try {
+        profile.finish();
+      } catch (IOException ignore) {
+        // recorded again on the next start
+      }
     }
   }
 
@@ -86,6 +232,12 @@ public class FastURLClassLoader extends LaunchedURLClassLoader implements Closea
   protected void addURL(URL url) {
     if (enable) {
       fastURLClassPath.addURL(url);
+      // swapped rather than cleared, a lookup of the old path still in
+      // progress puts its URLs into the map replaced
+      ConcurrentMap<String, List<URL>> resources = resourcesHolder.get();
+      if (resources != null) {
+        resourcesHolder.compareAndSet(resources, MapUtil.<String, List<URL>>newConcurrentMap());
+      }
     } else {
       super.addURL(url);
     }
@@ -97,6 +249,11 @@ public class FastURLClassLoader extends LaunchedURLClassLoader implements Closea
   }
 
   public void close() throws IOException {
+    if (enable) {
+      cacheExpiry.close();
+      resourcesHolder.set(null);
+      finishProfile();
+    }
     IOException firstException = null;
     try {
       super.close();
@@ -133,15 +290,74 @@ public class FastURLClassLoader extends LaunchedURLClassLoader implements Closea
     }
   }
 
+  /**
+   * Lists the entries starting with the specified prefix, e.g. {@code com/acme/}, straight from
+   * the index without reopening any jar.
+   *
+   * @param prefix the prefix of the entry names
+   * @return the entry names per base URL of the jar or directory, in class path order
+   */
+  public Map<URL, List<String>> getEntryNames(String prefix) {
+    if (enable) {
+      return fastURLClassPath.getEntryNames(prefix);
+    } else {
+      throw new IllegalStateException("Not support getEntryNames!");
+    }
+  }
+
+  /**
+   * Signals that the startup is over, e.g. on Spring's {@code ApplicationReadyEvent}. The cached
+   * bytes are then released step by step in the background and the profile is written, as they
+   * would be once the cache is idle or expires. Does nothing if the loader is disabled.
+   */
+  public void finishStartup() {
+    if (enable) {
+      cacheExpiry.expire();
+    }
+  }
+
+  /**
+   * Returns the lookup statistics of this class loader.
+   */
+  public FastLoaderStatistics getStatistics() {
+    if (enable) {
+      return fastURLClassPath.getStatistics();
+    } else {
+      throw new IllegalStateException("Not support getStatistics!");
+    }
+  }
+
+  /**
+   * Returns the estimated heap size in bytes of the entry index enabled by
+   * -Dares.turbo.classloader.entry-index=true, or -1 if it is not enabled or still being built in
+   * the background.
+   */
+  public long getEntryIndexFootprint() {
+    if (enable) {
+      return fastURLClassPath.getEntryIndexFootprint();
+    } else {
+      throw new IllegalStateException("Not support getEntryIndexFootprint!");
+    }
+  }
+
   @Override
   protected Class<?> findClass(final String name) throws ClassNotFoundException {
     if (!enable) {
       return super.findClass(name);
     }
+    if (predefiner != null) {
+      predefiner.start();
+    }
 
     String path = name.replace('.', '/').concat(".class");
-    FastResource fastResource = fastURLClassPath.getResource(path, false);
+    FastResource fastResource = prefetcher != null ? prefetcher.take(path) : null;
+    if (fastResource == null) {
+      fastResource = fastURLClassPath.getResource(path, false);
+    }
     if (fastResource != null) {
+      if (profile != null) {
+        profile.record(path);
+      }
       try {
         return defineClass(name, fastResource);
       } catch (IOException e) {
@@ -209,28 +425,110 @@ public class FastURLClassLoader extends LaunchedURLClassLoader implements Closea
   private Class<?> defineClass(String name, FastResource fastResource) throws IOException {
     int i = name.lastIndexOf('.');
     URL url = fastResource.getCodeSourceURL();
+    FastLoader loader = fastResource.getLoader();
     if (i != -1) {
       String pkgname = name.substring(0, i);
-      // Check if package already loaded.
-      Manifest man = fastResource.getManifest();
-      definePackageInternal(pkgname, man, url);
+      // Check if package already loaded, once per package of a loader
+      if (loader == null || !loader.isPackageVerified(pkgname)) {
+        Manifest man = fastResource.getManifest();
+        definePackageInternal(pkgname, man, url);
+        if (loader != null) {
+          loader.setPackageVerified(pkgname);
+        }
+      }
+    }
+    // Now read the class bytes and define the class, the bytes read by
+    // getResourceAsStream before are taken from the cache, which is also
+    // filled for the readers to come. Signers can only be read after the
+    // jar read the bytes itself.
+    BytesCache cache = loader != null && !loader.isSigned() ? cacheHolder.get() : null;
+    if (cache != null) {
+      cacheExpiry.recordAccess();
     }
-    // Now read the class bytes and define the class
-    java.nio.ByteBuffer bb = fastResource.getByteBuffer();
+    byte[] cachedBytes = cache != null ? cache.getBytes(fastResource.getName()) : null;
+    java.nio.ByteBuffer bb = cachedBytes == null ? fastResource.getByteBuffer() : null;
     if (bb != null) {
       // Use (direct) ByteBuffer:
-      CodeSigner[] signers = fastResource.getCodeSigners();
-      CodeSource cs = new CodeSource(url, signers);
-      return defineClass(name, bb, cs);
+      CodeSigner[] signers = getCodeSigners(loader, fastResource);
+      ProtectionDomain pd = getProtectionDomain(loader, url, signers);
+      fastURLClassPath.getStatistics().recordByteBufferDefinition();
+      try {
+        if (pd == null) {
+          return defineClass(name, bb, new CodeSource(url, signers));
+        }
+        return defineClass(name, bb, pd);
+      } finally {
+        fastResource.releaseByteBuffer();
+      }
     } else {
-      byte[] b = fastResource.getBytes();
+      FastLoaderStatistics statistics = fastURLClassPath.getStatistics();
+      byte[] b = cachedBytes;
+      if (b != null) {
+        statistics.recordCachedDefinition(b.length);
+      } else {
+        long start = System.nanoTime();
+        b = fastResource.getBytes();
+        statistics.recordDefinitionRead(b.length, System.nanoTime() - start);
+        if (cache != null) {
+          cache.put(fastResource.getName(), b);
+        }
+      }
       // must read certificates AFTER reading bytes.
-      CodeSigner[] signers = fastResource.getCodeSigners();
-      CodeSource cs = new CodeSource(url, signers);
-      return defineClass(name, b, 0, b.length, cs);
+      CodeSigner[] signers = getCodeSigners(loader, fastResource);
+      ProtectionDomain pd = getProtectionDomain(loader, url, signers);
+      statistics.recordByteArrayDefinition(b.length);
+      if (pd == null) {
+        return defineClass(name, b, 0, b.length, new CodeSource(url, signers));
+      }
+      return defineClass(name, b, 0, b.length, pd);
     }
   }
 
+  /*
+   * Returns the code signers of a class, which are only looked up, and the
+   * jar verified, for the loaders of signed jars
+   */
+  private CodeSigner[] getCodeSigners(FastLoader loader, FastResource fastResource) {
+    FastLoaderStatistics statistics = fastURLClassPath.getStatistics();
+    if (loader != null && !loader.isSigned()) {
+      statistics.recordSkippedVerification();
+      return null;
+    }
+    long start = System.nanoTime();
+    try {
+      return fastResource.getCodeSigners();
+    } finally {
+      statistics.recordVerification(System.nanoTime() - start);
+    }
+  }
+
+  /*
+   * Returns the protection domain of a class, the unsigned classes of a
+   * loader share one instead of looking it up by code source every time,
+   * or null for a signed class, whose protection domain is looked up by
+   * SecureClassLoader in its cache per code source
+   */
+  private ProtectionDomain getProtectionDomain(FastLoader loader, URL url,
+      CodeSigner[] signers) {
+    if (loader == null || signers != null) {
+      return null;
+    }
+    ProtectionDomain pd = loader.getProtectionDomain();
+    if (pd == null) {
+      pd = newProtectionDomain(new CodeSource(url, (CodeSigner[]) null));
+      loader.setProtectionDomain(pd);
+    }
+    return pd;
+  }
+
+  /*
+   * Creates the protection domain the same way as SecureClassLoader does
+   * for a code source
+   */
+  private ProtectionDomain newProtectionDomain(CodeSource cs) {
+    return new ProtectionDomain(cs, getPermissions(cs), this, null);
+  }
+
   /*
    * Returns true if the specified package name is sealed according to the
    * given manifest.
@@ -273,30 +571,142 @@ public class FastURLClassLoader extends LaunchedURLClassLoader implements Closea
 
   @Override
   public InputStream getResourceAsStream(String name) {
-    BytesLruCache cache = cacheHolder.get();
-    if (!name.endsWith(CLASS_SUFFIX) || cache == null) {
+    if (!enable) {
       return super.getResourceAsStream(name);
     }
+    InputStream stagedInputStream = getStagedResourceAsStream(name);
+    if (null != stagedInputStream) {
+      return stagedInputStream;
+    }
+    BytesCache cache = cacheHolder.get();
+    int maxSize;
+    if (cache == null) {
+      return record(name, super.getResourceAsStream(name));
+    } else if (name.endsWith(CLASS_SUFFIX)) {
+      maxSize = Integer.MAX_VALUE;
+    } else if (resourcePolicy != null && resourcePolicy.matches(name)) {
+      maxSize = resourcePolicy.getMaxSize();
+    } else {
+      return record(name, super.getResourceAsStream(name));
+    }
+    cacheExpiry.recordAccess();
 
-    byte[] cacheBytes = cache.get(name);
-    if (null != cacheBytes) {
-      return new ByteArrayInputStream(cacheBytes);
+    InputStream cacheInputStream = cache.getInputStream(name);
+    if (null != cacheInputStream) {
+      return cacheInputStream;
     }
 
-    InputStream inputStream = super.getResourceAsStream(name);
-    if (null == inputStream) {
+    // Only the bytes of the resource of this class path which the parent
+    // first lookup resolves to are cached, so that a class defined from the
+    // cache is defined from the bytes of its own loader
+    URL url = getResource(name);
+    if (null == url) {
       return null;
     }
+    FastResource fastResource = fastURLClassPath.getResource(name, false);
+    if (fastResource == null
+        || !url.toExternalForm().equals(fastResource.getURL().toExternalForm())) {
+      return record(name, openStream(url));
+    }
+    if (profile != null) {
+      profile.record(name);
+    }
 
-    ByteArrayOutputStream outputStream = new ByteArrayOutputStream(4096);
     try {
-      IoUtil.copy(inputStream, outputStream);
+      int contentLength = fastResource.getContentLength();
+      if (contentLength != -1 && contentLength <= maxSize) {
+        byte[] bytes = fastResource.getBytes();
+        cache.put(name, bytes);
+        return new ByteArrayInputStream(bytes);
+      }
+      InputStream inputStream = fastResource.getInputStream();
+      ByteArrayOutputStream outputStream = new ByteArrayOutputStream(4096);
+      if (!copy(inputStream, outputStream, maxSize)) {
+        // too large to be cached, the rest is read from the stream
+        return new SequenceInputStream(new ByteArrayInputStream(outputStream.toByteArray()),
+            inputStream);
+      }
+      byte[] bytes = outputStream.toByteArray();
+      cache.put(name, bytes);
+      return new ByteArrayInputStream(bytes);
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
-    byte[] bytes = outputStream.toByteArray();
-    cache.put(name, bytes);
-    return new ByteArrayInputStream(bytes);
+  }
+
+  /*
+   * Opens the stream of a resource found by the parent or another loader,
+   * null if it can not be read, as getResourceAsStream does
+   */
+  private static InputStream openStream(URL url) {
+    try {
+      return url.openStream();
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  /*
+   * Copies the stream until its end, returns false as soon as more than
+   * the maximum size was copied
+   */
+  private static boolean copy(InputStream inputStream, ByteArrayOutputStream outputStream,
+      int maxSize) throws IOException {
+    byte[] buffer = new byte[IoUtil.DEFAULT_BUFFER_SIZE];
+    int n;
+    while (IoUtil.EOF != (n = inputStream.read(buffer))) {
+      outputStream.write(buffer, 0, n);
+      if (outputStream.size() > maxSize) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /*
+   * The security manager is deprecated for removal, a JDK without it never
+   * has one
+   */
+  @SuppressWarnings("removal")
+  private static boolean hasSecurityManager() {
+    return System.getSecurityManager() != null;
+  }
+
+  private static BytesCache createCache(int maxCacheSize) {
+    if ("direct".equals(System.getProperty(CACHE_STORAGE_KEY))) {
+      return new BytesSlabCache(maxCacheSize);
+    }
+    if ("lru".equals(System.getProperty(CACHE_EVICTION_KEY))) {
+      return new BytesLruCache(maxCacheSize);
+    }
+    return new BytesClockCache(maxCacheSize);
+  }
+
+  /*
+   * Returns the resource read ahead by the prefetcher unless the parent
+   * class loader has one of the same name, which takes precedence.
+   */
+  private InputStream getStagedResourceAsStream(String name) {
+    FastResource fastResource = prefetcher != null ? prefetcher.take(name) : null;
+    if (fastResource == null) {
+      return null;
+    }
+    ClassLoader parent = getParent();
+    if (parent == null || parent.getResource(name) != null) {
+      return null;
+    }
+    try {
+      return fastResource.getInputStream();
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  private InputStream record(String name, InputStream inputStream) {
+    if (profile != null && inputStream != null) {
+      profile.record(name);
+    }
+    return inputStream;
   }
 
   @Override
@@ -305,6 +715,16 @@ public class FastURLClassLoader extends LaunchedURLClassLoader implements Closea
       return super.findResources(name);
     }
 
+    ConcurrentMap<String, List<URL>> resources = resourcesHolder.get();
+    if (resources != null && resourcePolicy.matches(name)) {
+      List<URL> urls = resources.get(name);
+      if (urls == null) {
+        urls = Collections.list(fastURLClassPath.findResources(name, true));
+        resources.put(name, urls);
+      }
+      return Collections.enumeration(urls);
+    }
+
     final Enumeration<URL> e = fastURLClassPath.findResources(name, true);
 
     return new Enumeration<URL>() {
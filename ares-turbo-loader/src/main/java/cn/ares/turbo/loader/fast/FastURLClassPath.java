@@ -4,6 +4,7 @@ import static cn.ares.turbo.loader.fast.FastFileLoader.FILE;
 
 import cn.ares.turbo.loader.util.CollectionUtil;
 import cn.ares.turbo.loader.util.MapUtil;
+import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayDeque;
@@ -12,7 +13,9 @@ import java.util.Collections;
 import java.util.Deque;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.concurrent.locks.Lock;
@@ -28,11 +31,24 @@ public class FastURLClassPath {
   static final String USER_AGENT_JAVA_VERSION = "UA-Java-Version";
   static final String JAVA_VERSION;
   static final boolean DISABLE_CP_URL_CHECK;
+  /* The file the index is memory mapped from, written on the first start */
+  static final File INDEX_FILE;
+  /* The directory the index keys of each archive are cached in across restarts */
+  static final File INDEX_CACHE_DIR;
+  /* Whether to index every entry name besides the package names */
+  static final boolean ENTRY_INDEX = Boolean.getBoolean("ares.turbo.classloader.entry-index");
+  /* Whether to reject names absent from every jar by a bloom filter */
+  static final boolean ENTRY_FILTER = Boolean.getBoolean("ares.turbo.classloader.entry-filter");
 
   static {
     JAVA_VERSION = System.getProperty("java.version");
     String property = System.getProperty("jdk.net.URLClassPath.disableClassPathURLCheck", "true");
     DISABLE_CP_URL_CHECK = property != null && ("true".equals(property) || property.isEmpty());
+    String indexFile = System.getProperty("ares.turbo.classloader.index-file");
+    INDEX_FILE = indexFile != null && !indexFile.isEmpty() ? new File(indexFile) : null;
+    String indexCacheDir = System.getProperty("ares.turbo.classloader.index-cache-dir");
+    INDEX_CACHE_DIR = indexCacheDir != null && !indexCacheDir.isEmpty()
+        ? new File(indexCacheDir) : null;
   }
 
   /* The original search path of URLs. */
@@ -44,6 +60,14 @@ public class FastURLClassPath {
   /* The index of each loader */
   volatile FastLoaderIndex loaderIndex;
 
+  /* The package trie of the loaders, built on first use */
+  private volatile FastPackageTrie packageTrie;
+
+  /* The index precomputed at repackage time, may be null */
+  private final FastIndexFile indexFile;
+
+  private final FastLoaderStatistics statistics = new FastLoaderStatistics();
+
   /* Map of each URL opened to its corresponding Loader */
   /* Avoid duplication */
   private final HashMap<String, FastLoader> fastLoaderMap;
@@ -54,26 +78,105 @@ public class FastURLClassPath {
   private final Lock lock = new ReentrantLock();
 
   public FastURLClassPath(URL[] urls) {
+    this(urls, null, null);
+  }
+
+  /**
+   * Creates a search path whose index is read from the index file embedded at the specified
+   * location of the archive root, the loaders not covered by it are scanned at runtime.
+   */
+  public FastURLClassPath(URL[] urls, URL indexRoot, String indexLocation) {
     int urlLength = urls.length;
     path = new URL[urlLength];
     System.arraycopy(urls, 0, path, 0, urlLength);
     fastLoaderMap = MapUtil.newHashMap(urlLength);
     loaders = createLoaders(urls, fastLoaderMap);
-    loaderIndex = new FastLoaderIndex(loaders, true);
+    recordFlattenedFallbacks(loaders);
+    indexFile = FastIndexFile.loadIfPossible(indexRoot, indexLocation);
+    loaderIndex = createLoaderIndex(loaders, indexFile, statistics);
+  }
+
+  private static FastLoaderIndex createLoaderIndex(List<FastLoader> loaders,
+      final FastIndexFile indexFile, FastLoaderStatistics statistics) {
+    if (INDEX_FILE != null) {
+      FastMappedIndex mappedIndex = FastMappedIndex.loadIfPossible(INDEX_FILE, loaders);
+      if (mappedIndex != null) {
+        FastLoaderIndex loaderIndex = new FastLoaderIndex(loaders, mappedIndex,
+            mappedIndex.getEntryFilter(), statistics);
+        // the filter is stored once built, unless it was stored already
+        loaderIndex.buildEntryIndex(loaders, ENTRY_FILTER && mappedIndex.getEntryFilter() == null
+            ? newIndexFileWriter(loaders, loaderIndex) : null);
+        return loaderIndex;
+      }
+    }
+    FastIndexSource indexSource = indexFile;
+    final FastIndexCache indexCache =
+        INDEX_CACHE_DIR != null ? FastIndexCache.open(INDEX_CACHE_DIR, loaders) : null;
+    if (indexCache != null) {
+      // the embedded index first, the cache covers the rest
+      indexSource = new FastIndexSource() {
+        @Override
+        public Set<String> getIndexKeys(FastLoader loader) {
+          Set<String> indexKeys = indexFile != null ? indexFile.getIndexKeys(loader) : null;
+          return indexKeys != null ? indexKeys : indexCache.getIndexKeys(loader);
+        }
+      };
+    }
+    FastLoaderIndex loaderIndex = new FastLoaderIndex(loaders, indexSource, true, statistics);
+    // Silently ignore write failures, the index is built again on the next start
+    if (indexCache != null) {
+      try {
+        indexCache.writeIfNecessary(loaders, loaderIndex);
+      } catch (IOException ignore) {
+      }
+    }
+    loaderIndex.buildEntryIndex(loaders,
+        INDEX_FILE != null ? newIndexFileWriter(loaders, loaderIndex) : null);
+    return loaderIndex;
+  }
+
+  /*
+   * Returns the task which writes the index file, together with the entry
+   * filter if it is built
+   */
+  private static Runnable newIndexFileWriter(final List<FastLoader> loaders,
+      final FastLoaderIndex loaderIndex) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        try {
+          FastMappedIndex.write(INDEX_FILE, loaders, loaderIndex.getIndexMap(),
+              loaderIndex.getEntryFilter());
+        } catch (IOException ignore) {
+          // Silently ignore, the index is written again on the next start
+        }
+      }
+    };
   }
 
   public void addURL(URL url) {
-    URL[] newPath = new URL[path.length + 1];
-    System.arraycopy(path, 0, newPath, 0, path.length);
-    newPath[path.length] = url;
+    // the package trie is built from the loaders under the same lock
+    lock.lock();
+    try {
+      URL[] newPath = new URL[path.length + 1];
+      System.arraycopy(path, 0, newPath, 0, path.length);
+      newPath[path.length] = url;
 
-    ArrayList<FastLoader> newLoaders = new ArrayList<>(loaders);
-    newLoaders.addAll(createLoaders(new URL[]{url}, fastLoaderMap));
-    FastLoaderIndex newLoaderIndex = new FastLoaderIndex(newLoaders, false);
+      ArrayList<FastLoader> newLoaders = new ArrayList<>(loaders);
+      List<FastLoader> addedLoaders = createLoaders(new URL[]{url}, fastLoaderMap);
+      recordFlattenedFallbacks(addedLoaders);
+      newLoaders.addAll(addedLoaders);
+      FastLoaderIndex newLoaderIndex = new FastLoaderIndex(newLoaders, indexFile, false,
+          statistics);
+      newLoaderIndex.buildEntryIndex(newLoaders, null);
 
-    this.path = newPath;
-    this.loaders = newLoaders;
-    this.loaderIndex = newLoaderIndex;
+      this.path = newPath;
+      this.loaders = newLoaders;
+      this.loaderIndex = newLoaderIndex;
+      this.packageTrie = null;
+    } finally {
+      lock.unlock();
+    }
   }
 
   public List<IOException> closeLoaders() {
@@ -111,26 +214,98 @@ public class FastURLClassPath {
     return loaderIndex.getIndexKeys();
   }
 
+  /**
+   * Returns the estimated heap size in bytes of the entry index, or -1 if it is not enabled or
+   * still being built in the background.
+   */
+  public long getEntryIndexFootprint() {
+    return loaderIndex.getEntryIndexFootprint();
+  }
+
+  /**
+   * Returns the names of all entries starting with the specified prefix per base URL of the loader,
+   * in class path order. Jars are served from the package trie, directories are listed on each
+   * call as their content may change.
+   */
+  public Map<URL, List<String>> getEntryNames(String prefix) {
+    FastPackageTrie trie = packageTrie;
+    if (trie == null) {
+      lock.lock();
+      try {
+        if ((trie = packageTrie) == null) {
+          packageTrie = trie = new FastPackageTrie(loaders);
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+    // the loaders the trie was built from, even if a URL was added since
+    List<FastLoader> loaderList = trie.getLoaders();
+    Map<FastLoader, List<String>> entryNamesMap = trie.find(prefix);
+    Map<URL, List<String>> result = new LinkedHashMap<>();
+    for (FastLoader loader : loaderList) {
+      List<String> entryNames = loader instanceof FastFileLoader
+          ? ((FastFileLoader) loader).getEntryNames(prefix) : entryNamesMap.get(loader);
+      if (entryNames != null && !entryNames.isEmpty()) {
+        result.put(loader.getBaseURL(), entryNames);
+      }
+    }
+    return result;
+  }
+
+  public FastLoaderStatistics getStatistics() {
+    return statistics;
+  }
+
   public URL findResource(String name, boolean check) {
+    statistics.recordLookup();
     for (FastLoader loader : loaderIndex.get(name)) {
       URL url = loader.findResource(name, check);
       if (url != null) {
         return url;
       }
     }
+    statistics.recordMiss();
     return null;
   }
 
   public FastResource getResource(String name, boolean check) {
+    return getResource(name, check, true);
+  }
+
+  /*
+   * Returns the resource of the specified name, the lookup is not counted
+   * by the statistics if the record flag is false.
+   */
+  FastResource getResource(String name, boolean check, boolean record) {
+    if (record) {
+      statistics.recordLookup();
+    }
     for (FastLoader loader : loaderIndex.get(name)) {
       FastResource fastResource = loader.getResource(name, check);
       if (fastResource != null) {
         return fastResource;
       }
     }
+    if (record) {
+      statistics.recordMiss();
+    }
     return null;
   }
 
+  /**
+   * Returns a value which changes whenever a loader is added, removed or its content changes, the
+   * content of directories is not taken into account.
+   */
+  long getFingerprint() {
+    long fingerprint = 1;
+    for (FastLoader loader : loaders) {
+      fingerprint = 31 * fingerprint + loader.getBaseURL().toExternalForm().hashCode();
+      fingerprint = 31 * fingerprint + loader.getFingerprint();
+    }
+    return fingerprint;
+  }
+
   /**
    * Finds all resources on the URL search path with the given name. Returns an enumeration of the
    * URL objects.
@@ -139,6 +314,7 @@ public class FastURLClassPath {
    * @return an Enumeration of all the urls having the specified name
    */
   public Enumeration<URL> findResources(final String name, final boolean check) {
+    statistics.recordLookup();
     return new Enumeration<URL>() {
       private int index = 0;
       private final List<FastLoader> loaderList = loaderIndex.get(name);
@@ -176,6 +352,7 @@ public class FastURLClassPath {
   }
 
   public Enumeration<FastResource> getResources(final String name, final boolean check) {
+    statistics.recordLookup();
     return new Enumeration<FastResource>() {
       private int index = 0;
       private final List<FastLoader> loaderList = loaderIndex.get(name);
@@ -242,6 +419,18 @@ public class FastURLClassPath {
     return loaders;
   }
 
+  /*
+   * Counts the nested jars read by themselves although flattened, which
+   * would otherwise go unnoticed
+   */
+  private void recordFlattenedFallbacks(List<FastLoader> loaders) {
+    for (FastLoader loader : loaders) {
+      if (loader instanceof FastJarLoader && ((FastJarLoader) loader).isFlattenedFallback()) {
+        statistics.recordFlattenedFallback();
+      }
+    }
+  }
+
   private static void pushUrls(Deque<URL> urls, URL[] us) {
     if (us != null) {
       for (int i = us.length - 1; i >= 0; --i) {
@@ -0,0 +1,81 @@
+package cn.ares.turbo.loader.util;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+/**
+ * @author: Ares
+ * @time: 2026-10-17 16:42:31
+ * @description: 直接缓冲区工具类, 通过反射立即释放直接缓冲区或文件映射
+ * @description: Direct buffer util, frees a direct buffer or a file mapping at once through
+ * reflection, with Unsafe#invokeCleaner on JDK 9+ and the cleaner of the buffer on JDK 8
+ * @version: JDK 1.7
+ */
+public class BufferUtil {
+
+  /* Unsafe#invokeCleaner and its instance, null before JDK 9 */
+  private static final Object UNSAFE;
+  private static final Method INVOKE_CLEANER;
+  /* DirectBuffer#cleaner and Cleaner#clean, null if not accessible */
+  private static final Method CLEANER;
+  private static final Method CLEAN;
+
+  static {
+    Object unsafe = null;
+    Method invokeCleaner = null;
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+      Field field = unsafeClass.getDeclaredField("theUnsafe");
+      field.setAccessible(true);
+      unsafe = field.get(null);
+    } catch (Exception e) {
+      invokeCleaner = null;
+    }
+    Method cleaner = null;
+    Method clean = null;
+    if (invokeCleaner == null) {
+      try {
+        cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+        clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+      } catch (Exception e) {
+        cleaner = null;
+      }
+    }
+    UNSAFE = unsafe;
+    INVOKE_CLEANER = invokeCleaner;
+    CLEANER = cleaner;
+    CLEAN = clean;
+  }
+
+  /**
+   * Frees the memory of a direct buffer or the mapping of a mapped buffer at once, the buffer and
+   * every view of it must not be accessed afterwards. Slices and duplicates are not freed.
+   *
+   * @param buffer the buffer to free
+   * @return whether the buffer was freed, otherwise it is left to the garbage collector
+   */
+  public static boolean free(ByteBuffer buffer) {
+    if (buffer == null || !buffer.isDirect()) {
+      return false;
+    }
+    try {
+      if (INVOKE_CLEANER != null) {
+        INVOKE_CLEANER.invoke(UNSAFE, buffer);
+        return true;
+      }
+      if (CLEANER != null) {
+        Object cleaner = CLEANER.invoke(buffer);
+        if (cleaner != null) {
+          CLEAN.invoke(cleaner);
+          return true;
+        }
+      }
+    } catch (Exception e) {
+      // left to the garbage collector, e.g. a slice or a duplicate
+    }
+    return false;
+  }
+
+}
@@ -0,0 +1,46 @@
+package cn.ares.turbo.loader.util;
+
+import java.io.InputStream;
+
+/**
+ * @author: Ares
+ * @time: 2026-10-17 11:05:42
+ * @description: 按名称缓存字节的缓存, 存储方式由实现决定
+ * @description: Cache of bytes by name, the storage is up to the implementation
+ * @version: JDK 1.7
+ */
+public interface BytesCache {
+
+  /**
+   * Returns a stream over the cached bytes of the key, or null if they are not cached.
+   */
+  InputStream getInputStream(String key);
+
+  /**
+   * Returns the cached bytes of the key, or null if they are not cached. The bytes may be shared
+   * and must not be modified.
+   */
+  byte[] getBytes(String key);
+
+  /**
+   * Caches the bytes of the key, which may be rejected, e.g. once the cache is full.
+   */
+  void put(String key, byte[] bytes);
+
+  /**
+   * Returns the number of bytes held by the cache.
+   */
+  long getWeight();
+
+  /**
+   * Releases cached bytes, the least valuable first, until at most the specified number of bytes is
+   * held, and caches no more than that afterwards.
+   */
+  void trim(long maxWeight);
+
+  /**
+   * Releases all cached bytes, the cache is no longer used afterwards.
+   */
+  void release();
+
+}
@@ -0,0 +1,220 @@
+package cn.ares.turbo.loader.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * @author: Ares
+ * @time: 2026-10-17 10:12:30
+ * @description: 按字节数限制容量的CLOCK缓存, 读取无锁, 仅淘汰时加锁
+ * @description: Clock cache bounded by the total number of bytes, reads are lock free and only
+ * eviction is serialized, per instance
+ * @version: JDK 1.7
+ */
+public class BytesClockCache implements BytesCache {
+
+  /*
+   * Once full, a put evicts a further 1/32 of the maximum weight, so that
+   * the hand passes the referenced nodes once for a batch of evictions
+   */
+  private static final int EVICTION_SHIFT = 5;
+
+  private final ConcurrentMap<String, Node> map;
+  /* The clock, the head is the hand, may contain replaced or removed nodes */
+  private final Queue<Node> clock = new ConcurrentLinkedQueue<>();
+  private final AtomicLong weight = new AtomicLong();
+  private final ReentrantLock evictionLock = new ReentrantLock();
+  /* Lowered by trim, read without locking by put */
+  private volatile long maxWeight;
+
+  public BytesClockCache(long maxWeight) {
+    this.maxWeight = maxWeight;
+    this.map = MapUtil.newConcurrentMap(1024);
+  }
+
+  private static final class Node {
+
+    private final String key;
+    private final int length;
+    /* Dropped once the node is unlinked, it may stay in the clock a while */
+    private volatile byte[] bytes;
+    private volatile boolean referenced;
+
+    private Node(String key, byte[] bytes) {
+      this.key = key;
+      this.length = bytes.length;
+      this.bytes = bytes;
+    }
+
+    private byte[] unlink() {
+      byte[] unlinked = bytes;
+      bytes = null;
+      return unlinked;
+    }
+  }
+
+  @Override
+  public InputStream getInputStream(String key) {
+    byte[] bytes = get(key);
+    return bytes != null ? new ByteArrayInputStream(bytes) : null;
+  }
+
+  @Override
+  public byte[] getBytes(String key) {
+    return get(key);
+  }
+
+  /**
+   * Returns the cached bytes of the key or null, marks them as recently used. The bytes replaced or
+   * removed meanwhile are not returned.
+   */
+  public byte[] get(String key) {
+    Node node = map.get(key);
+    if (node == null) {
+      return null;
+    }
+    // avoid writing the shared cache line again
+    if (!node.referenced) {
+      node.referenced = true;
+    }
+    return node.bytes;
+  }
+
+  /**
+   * Caches the bytes of the key, bytes larger than the maximum weight are not cached. Once the
+   * maximum weight is exceeded the least recently used bytes are evicted in a batch down to slightly
+   * below it, by one thread at a time, which also evicts the bytes put meanwhile.
+   */
+  @Override
+  public void put(String key, byte[] bytes) {
+    if (bytes.length > maxWeight) {
+      return;
+    }
+    Node node = new Node(key, bytes);
+    Node oldNode = map.put(key, node);
+    if (oldNode != null) {
+      oldNode.unlink();
+    }
+    weight.addAndGet(oldNode != null ? bytes.length - oldNode.length : bytes.length);
+    clock.offer(node);
+    // a thread evicting meanwhile also evicts the bytes put by this one
+    while (weight.get() > maxWeight && evictionLock.tryLock()) {
+      try {
+        evict(maxWeight - (maxWeight >>> EVICTION_SHIFT));
+      } finally {
+        evictionLock.unlock();
+      }
+    }
+  }
+
+  /*
+   * Evicts until the weight fits in the specified number of bytes, requires
+   * the eviction lock
+   */
+  private void evict(long targetWeight) {
+    while (weight.get() > targetWeight && evictOne()) {
+      // until the weight fits again
+    }
+  }
+
+  /**
+   * Evicts the least recently used bytes down to the maximum weight, which is kept for the bytes
+   * put afterwards.
+   */
+  @Override
+  public void trim(long maxWeight) {
+    evictionLock.lock();
+    try {
+      if (maxWeight < this.maxWeight) {
+        this.maxWeight = maxWeight;
+      }
+      evict(this.maxWeight);
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  /*
+   * Advances the hand to the first node not referenced since the last pass
+   * and evicts it, returns false if the clock is empty
+   */
+  private boolean evictOne() {
+    Node node;
+    while ((node = clock.poll()) != null) {
+      if (node.bytes == null) {
+        // replaced or removed meanwhile, the node is unlinked
+        continue;
+      }
+      if (node.referenced) {
+        node.referenced = false;
+        clock.offer(node);
+        continue;
+      }
+      if (map.remove(node.key, node)) {
+        node.unlink();
+        weight.addAndGet(-node.length);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public byte[] remove(String key) {
+    Node node = map.remove(key);
+    if (node == null) {
+      return null;
+    }
+    weight.addAndGet(-node.length);
+    return node.unlink();
+  }
+
+  public boolean containsKey(String key) {
+    return map.containsKey(key);
+  }
+
+  public int size() {
+    return map.size();
+  }
+
+  /**
+   * Returns the total number of bytes cached.
+   */
+  @Override
+  public long getWeight() {
+    return weight.get();
+  }
+
+  public long getMaxWeight() {
+    return maxWeight;
+  }
+
+  @Override
+  public void release() {
+    clear();
+  }
+
+  public void clear() {
+    evictionLock.lock();
+    try {
+      for (String key : map.keySet()) {
+        remove(key);
+      }
+      // keep the nodes put meanwhile, so that they can still be evicted
+      for (Iterator<Node> it = clock.iterator(); it.hasNext(); ) {
+        Node node = it.next();
+        if (map.get(node.key) != node) {
+          it.remove();
+        }
+      }
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+}
@@ -0,0 +1,297 @@
+package cn.ares.turbo.loader.util;
+
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author: Ares
+ * @time: 2026-10-17 11:20:08
+ * @description: 将字节存储在堆外slab中的缓存, 按顺序分配, 写满后不再缓存, 收缩时按分配顺序归还slab
+ * @description: Cache which stores the bytes in direct slabs off the heap, allocated by bumping a
+ * pointer and not cached any more once full. The slabs are retired oldest first on trim and each
+ * is freed as soon as no stream over it is open, so the garbage collector never copies the cached
+ * bytes. A retired slab is not referenced by the cache any more, one a stream left open still pins
+ * is left to the garbage collector along with the stream
+ * @version: JDK 1.7
+ */
+public class BytesSlabCache implements BytesCache {
+
+  private static final int DEFAULT_SLAB_SIZE = 4 * 1024 * 1024;
+
+  private final ConcurrentMap<String, Region> regions = MapUtil.newConcurrentMap(1024);
+  private final int slabSize;
+
+  /* Guarded by this, the slabs in allocation order, not retired yet */
+  private final List<Slab> slabs = new ArrayList<>();
+  private Slab slab;
+  private long weight;
+  private long maxWeight;
+
+  public BytesSlabCache(long maxWeight) {
+    this.maxWeight = maxWeight;
+    this.slabSize = (int) Math.min(DEFAULT_SLAB_SIZE, maxWeight);
+  }
+
+  private static final class Slab {
+
+    private final ByteBuffer buffer;
+    /* The number of open streams and puts in progress over the slab */
+    private final AtomicInteger pins = new AtomicInteger();
+    /* Set before the regions of the slab are removed, the slab is freed once nothing is pinned */
+    private volatile boolean retired;
+    private final AtomicBoolean freed = new AtomicBoolean();
+
+    private Slab(int capacity) {
+      this.buffer = ByteBuffer.allocateDirect(capacity);
+    }
+
+    /*
+     * Pins the slab, returns false if it is retired, the pins are written
+     * before retired is read and the other way round by retire, so either
+     * the pin sees the slab retired or retire sees it pinned
+     */
+    private boolean pin() {
+      pins.incrementAndGet();
+      if (retired) {
+        unpin();
+        return false;
+      }
+      return true;
+    }
+
+    private void unpin() {
+      if (pins.decrementAndGet() == 0 && retired) {
+        free();
+      }
+    }
+
+    /*
+     * Requires the regions of the slab to be removed, so that it can not be
+     * pinned any more, frees it at once unless a stream is still open
+     */
+    private void retire() {
+      if (pins.get() == 0) {
+        free();
+      }
+    }
+
+    private void free() {
+      if (freed.compareAndSet(false, true)) {
+        BufferUtil.free(buffer);
+      }
+    }
+  }
+
+  private static final class Region {
+
+    private final Slab slab;
+    private final int offset;
+    private final int length;
+
+    private Region(Slab slab, int offset, int length) {
+      this.slab = slab;
+      this.offset = offset;
+      this.length = length;
+    }
+
+    private ByteBuffer getBuffer() {
+      ByteBuffer buffer = slab.buffer.duplicate();
+      ((Buffer) buffer).limit(offset + length);
+      ((Buffer) buffer).position(offset);
+      return buffer;
+    }
+  }
+
+  /*
+   * Pins the slab and returns the region of the key, or null if it is
+   * absent or its slab is retired
+   */
+  private Region pin(String key) {
+    Region region = regions.get(key);
+    return region != null && region.slab.pin() ? region : null;
+  }
+
+  @Override
+  public InputStream getInputStream(String key) {
+    Region region = pin(key);
+    return region != null ? new SlabInputStream(region) : null;
+  }
+
+  @Override
+  public byte[] getBytes(String key) {
+    Region region = pin(key);
+    if (region == null) {
+      return null;
+    }
+    try {
+      byte[] bytes = new byte[region.length];
+      region.getBuffer().get(bytes);
+      return bytes;
+    } finally {
+      region.slab.unpin();
+    }
+  }
+
+  @Override
+  public void put(String key, byte[] bytes) {
+    if (regions.containsKey(key)) {
+      return;
+    }
+    Region region = allocate(bytes.length);
+    if (region == null) {
+      return;
+    }
+    try {
+      ByteBuffer buffer = region.slab.buffer.duplicate();
+      ((Buffer) buffer).position(region.offset);
+      buffer.put(bytes);
+      // the bytes are visible to the threads which find the region
+      if (regions.putIfAbsent(key, region) == null && region.slab.retired) {
+        // retired meanwhile, its regions may have been removed already
+        regions.remove(key, region);
+      }
+    } finally {
+      region.slab.unpin();
+    }
+  }
+
+  /*
+   * Bumps the position of the current slab, or starts a new slab if the
+   * current one is full, returns null if the cache is full. The slab of the
+   * region is pinned, it can not be retired meanwhile.
+   */
+  private synchronized Region allocate(int length) {
+    if (slab == null || slab.buffer.remaining() < length) {
+      int capacity = Math.max(slabSize, length);
+      if (weight + capacity > maxWeight) {
+        return null;
+      }
+      slab = new Slab(capacity);
+      slabs.add(slab);
+      weight += capacity;
+    }
+    int offset = slab.buffer.position();
+    ((Buffer) slab.buffer).position(offset + length);
+    slab.pins.incrementAndGet();
+    return new Region(slab, offset, length);
+  }
+
+  /**
+   * Returns the total capacity of the slabs allocated and not retired.
+   */
+  @Override
+  public synchronized long getWeight() {
+    return weight;
+  }
+
+  /**
+   * Retires the oldest slabs down to the maximum weight, which is kept for the bytes put
+   * afterwards. Each slab is freed as soon as no stream over it is open.
+   */
+  @Override
+  public void trim(long maxWeight) {
+    List<Slab> retiredSlabs = new ArrayList<>();
+    synchronized (this) {
+      this.maxWeight = Math.min(this.maxWeight, maxWeight);
+      while (weight > this.maxWeight && !slabs.isEmpty()) {
+        Slab retiredSlab = slabs.remove(0);
+        retiredSlab.retired = true;
+        retiredSlabs.add(retiredSlab);
+        weight -= retiredSlab.buffer.capacity();
+        if (retiredSlab == slab) {
+          slab = null;
+        }
+      }
+    }
+    if (retiredSlabs.isEmpty()) {
+      return;
+    }
+    for (Iterator<Region> it = regions.values().iterator(); it.hasNext(); ) {
+      if (it.next().slab.retired) {
+        it.remove();
+      }
+    }
+    for (Slab retiredSlab : retiredSlabs) {
+      retiredSlab.retire();
+    }
+  }
+
+  @Override
+  public void release() {
+    trim(0);
+  }
+
+  public int size() {
+    return regions.size();
+  }
+
+  /*
+   * A view over a region of a slab, the slab is not freed while it is open,
+   * it is closed at the end of the stream at the latest
+   */
+  private static final class SlabInputStream extends InputStream {
+
+    private final Slab slab;
+    private final ByteBuffer buffer;
+    private boolean closed;
+
+    private SlabInputStream(Region region) {
+      this.slab = region.slab;
+      this.buffer = region.getBuffer();
+    }
+
+    @Override
+    public int read() {
+      if (closed || !buffer.hasRemaining()) {
+        close();
+        return -1;
+      }
+      return buffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if (closed || !buffer.hasRemaining()) {
+        close();
+        return -1;
+      }
+      int n = Math.min(len, buffer.remaining());
+      buffer.get(b, off, n);
+      return n;
+    }
+
+    @Override
+    public long skip(long n) {
+      if (closed || n <= 0) {
+        return 0;
+      }
+      int skipped = (int) Math.min(n, buffer.remaining());
+      ((Buffer) buffer).position(buffer.position() + skipped);
+      return skipped;
+    }
+
+    @Override
+    public int available() {
+      return closed ? 0 : buffer.remaining();
+    }
+
+    @Override
+    public void close() {
+      if (!closed) {
+        closed = true;
+        slab.unpin();
+      }
+    }
+  }
+
+}